@@ -18,6 +18,7 @@ package body;
 
 import convenience.Vector2D;
 import static java.lang.Double.POSITIVE_INFINITY;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -25,16 +26,40 @@ import static java.lang.Double.POSITIVE_INFINITY;
  */
 public abstract class Body {
 
+    /**
+     * The number of shape types. Every kind of body has its own shape type,
+     * a number below this one, by which collision routines are looked up.
+     */
+    public static final int SHAPE_TYPE_COUNT = 3;
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /**
+     * A number identifying the body, unique among the bodies created by this
+     * process.
+     */
+    public final int id = NEXT_ID.getAndIncrement();
+
     public final Vector2D position = new Vector2D(), velocity = new Vector2D(), acceleration = new Vector2D();
     public double angle, angularVelocity, angularAcceleration;
 
     public final double mass, invertedMass;
     public final double momentOfInertia;
     public final boolean isStatic;
+    public final double boundingRadius;
+    public final int shapeType;
     
     private final double coefficientOfRestitution;
 
-    Body(double mass, double momentOfInertia, double coefficientOfRestitution) {
+    private int collisionCategory = 1, collisionMask = -1, collisionGroup;
+    private boolean isSensor;
+
+    int levelOfDetailTier;
+    double lagSeconds;
+
+    Body(int shapeType, double boundingRadius, double mass, double momentOfInertia, double coefficientOfRestitution) {
+        this.shapeType = shapeType;
+        this.boundingRadius = boundingRadius;
         this.mass = mass;
         invertedMass = 1 / this.mass;
         this.momentOfInertia = momentOfInertia;
@@ -71,16 +96,55 @@ public abstract class Body {
         acceleration.add(Vector2D.division(force, mass));
     }
 
+    /**
+     * Moves the body forward in time, including any time it has lagged
+     * behind.
+     *
+     * @param seconds the time to move forward
+     */
     public void integrate(double seconds) {
-        velocity.add(Vector2D.multiplication(acceleration, seconds));
-        acceleration.set();
-        position.add(Vector2D.multiplication(velocity, seconds));
+        integrateVelocity(seconds);
+        integratePosition(seconds + lagSeconds);
+        lagSeconds = 0;
+    }
+
+    final void lag(double seconds) {
+        integrateVelocity(seconds);
+        lagSeconds += seconds;
+    }
+
+    final void catchUp() {
+        if (lagSeconds > 0) {
+            integratePosition(lagSeconds);
+            lagSeconds = 0;
+        }
+    }
 
+    private void integrateVelocity(double seconds) {
+        velocity.x += acceleration.x * seconds;
+        velocity.y += acceleration.y * seconds;
+        acceleration.set();
         angularVelocity += angularAcceleration * seconds;
         angularAcceleration = 0;
+    }
+
+    void integratePosition(double seconds) {
+        position.x += velocity.x * seconds;
+        position.y += velocity.y * seconds;
         angle += angularVelocity * seconds;
     }
 
+    /**
+     * @return the level of detail the body is stepped at, where a body in
+     * tier n is only moved every 2^n updates
+     */
+    public int getLevelOfDetailTier() {
+        return levelOfDetailTier;
+    }
+
+    public void convertRelativeShapeAttributes() {
+    }
+
     public abstract boolean containsPoint(Vector2D point);
 
     public abstract double minCoordinateAlong(Vector2D vector2D);
@@ -93,4 +157,52 @@ public abstract class Body {
         return coefficientOfRestitution;
     }
 
+    /**
+     * Sets which bodies this body may collide with. Two bodies collide if
+     * each one's category shares a bit with the other one's mask, unless
+     * they share a non-zero group, in which case they always collide if the
+     * group is positive and never collide if it is negative.
+     *
+     * @param category the bits this body belongs to
+     * @param mask the bits this body collides with
+     * @param group the group of this body, or zero for none
+     */
+    public void setCollisionFilter(int category, int mask, int group) {
+        collisionCategory = category;
+        collisionMask = mask;
+        collisionGroup = group;
+    }
+
+    public int getCollisionCategory() {
+        return collisionCategory;
+    }
+
+    public int getCollisionMask() {
+        return collisionMask;
+    }
+
+    public int getCollisionGroup() {
+        return collisionGroup;
+    }
+
+    /**
+     * Makes the body a sensor or an ordinary body. A sensor is only tested
+     * for overlapping the bodies it may collide with, and neither pushes
+     * nor is pushed by them.
+     */
+    public void setSensor(boolean isSensor) {
+        this.isSensor = isSensor;
+    }
+
+    public boolean isSensor() {
+        return isSensor;
+    }
+
+    public final boolean canCollideWith(Body other) {
+        if (collisionGroup != 0 && collisionGroup == other.collisionGroup) {
+            return collisionGroup > 0;
+        }
+        return (collisionCategory & other.collisionMask) != 0 && (other.collisionCategory & collisionMask) != 0;
+    }
+
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package body;
+
+import convenience.Vector2D;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes bodies to and reads them from a compact binary form. A body is read
+ * back as a seed from which an identical body can be grown.
+ *
+ * @author Jonatan Larsson
+ */
+public final class BodyCodec {
+
+    private static final byte CIRCULAR = 0, POLYGON = 1;
+    private static final int COMMON_SIZE = 2 + 9 * Double.BYTES + 3 * Integer.BYTES;
+
+    private BodyCodec() {
+    }
+
+    public static int encodedSize(Body body) {
+        if (body instanceof CircularBody) {
+            return COMMON_SIZE + Double.BYTES;
+        }
+        return COMMON_SIZE + Integer.BYTES + 2 * Double.BYTES * ((PolygonBody) body).vertexCount;
+    }
+
+    public static void write(Body body, ByteBuffer buffer) {
+        buffer.put(body instanceof CircularBody ? CIRCULAR : POLYGON);
+        buffer.putDouble(body.mass);
+        buffer.putDouble(body.momentOfInertia);
+        buffer.putDouble(body.getCoefficientOfRestitution());
+        buffer.putInt(body.getCollisionCategory());
+        buffer.putInt(body.getCollisionMask());
+        buffer.putInt(body.getCollisionGroup());
+        buffer.put(body.isSensor() ? (byte) 1 : 0);
+        buffer.putDouble(body.position.x);
+        buffer.putDouble(body.position.y);
+        buffer.putDouble(body.velocity.x);
+        buffer.putDouble(body.velocity.y);
+        buffer.putDouble(body.angle);
+        buffer.putDouble(body.angularVelocity);
+
+        if (body instanceof CircularBody) {
+            buffer.putDouble(((CircularBody) body).radius);
+        } else {
+            PolygonShape shape = ((PolygonBody) body).shape;
+            buffer.putInt(shape.vertexCount);
+            for (Vector2D vertex : shape.relativeVertices) {
+                buffer.putDouble(vertex.x);
+                buffer.putDouble(vertex.y);
+            }
+        }
+    }
+
+    public static BodySeed read(ByteBuffer buffer) {
+        byte kind = buffer.get();
+        BodySeed seed = (kind == CIRCULAR) ? new CircularBodySeed() : new PolygonBodySeed();
+        seed.bodyMass = buffer.getDouble();
+        seed.bodyMomentOfInertia = buffer.getDouble();
+        seed.bodyCoefficientOfRestitution = buffer.getDouble();
+        seed.bodyCollisionCategory = buffer.getInt();
+        seed.bodyCollisionMask = buffer.getInt();
+        seed.bodyCollisionGroup = buffer.getInt();
+        seed.bodyIsSensor = (buffer.get() != 0);
+        seed.bodyPosition.x = buffer.getDouble();
+        seed.bodyPosition.y = buffer.getDouble();
+        seed.bodyVelocity.x = buffer.getDouble();
+        seed.bodyVelocity.y = buffer.getDouble();
+        seed.bodyAngle = buffer.getDouble();
+        seed.bodyAngularVelocity = buffer.getDouble();
+
+        if (kind == CIRCULAR) {
+            ((CircularBodySeed) seed).bodyRadius = buffer.getDouble();
+        } else {
+            Vector2D[] vertices = new Vector2D[buffer.getInt()];
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = new Vector2D(buffer.getDouble(), buffer.getDouble());
+            }
+            ((PolygonBodySeed) seed).setBodyRelativeVertices(vertices);
+        }
+        return seed;
+    }
+
+    /**
+     * Reads an encoded body into a body grown from an earlier encoding of
+     * the same body. Its state, collision filter and sensor flag are set in
+     * place, while its shape, mass and coefficient of restitution are
+     * skipped, since they never change.
+     *
+     * @param buffer the buffer to read from
+     * @param body the body to update
+     */
+    public static void readState(ByteBuffer buffer, Body body) {
+        byte kind = buffer.get();
+        buffer.position(buffer.position() + 3 * Double.BYTES);
+        int category = buffer.getInt(), mask = buffer.getInt(), group = buffer.getInt();
+        body.setCollisionFilter(category, mask, group);
+        body.setSensor(buffer.get() != 0);
+        double x = buffer.getDouble(), y = buffer.getDouble();
+        body.position.set(x, y);
+        double velocityX = buffer.getDouble(), velocityY = buffer.getDouble();
+        body.velocity.set(velocityX, velocityY);
+        body.setAngle(buffer.getDouble());
+        body.setAngularVelocity(buffer.getDouble());
+
+        if (kind == CIRCULAR) {
+            buffer.position(buffer.position() + Double.BYTES);
+        } else {
+            int vertexCount = buffer.getInt();
+            buffer.position(buffer.position() + 2 * Double.BYTES * vertexCount);
+        }
+        body.convertRelativeShapeAttributes();
+    }
+
+}
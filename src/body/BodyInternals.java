@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package body;
+
+/**
+ * The parts of bodies that only the farm stepping them may touch. This class
+ * is not part of the public API: changing a body through it from outside
+ * the farm leaves the farm inconsistent.
+ *
+ * @author Jonatan Larsson
+ */
+public final class BodyInternals {
+
+    private BodyInternals() {
+    }
+
+    /**
+     * Lets time pass for the body without moving it. Its velocity still
+     * changes, so that the forces applied in the meantime act over the time
+     * they were meant to, but the change in position is put off until the
+     * body is integrated or caught up.
+     *
+     * @param seconds the time that passes
+     */
+    public static void lag(Body body, double seconds) {
+        body.lag(seconds);
+    }
+
+    /**
+     * Moves the body by the time it has lagged behind.
+     */
+    public static void catchUp(Body body) {
+        body.catchUp();
+    }
+
+    public static double getLagSeconds(Body body) {
+        return body.lagSeconds;
+    }
+
+    public static void setLagSeconds(Body body, double lagSeconds) {
+        body.lagSeconds = lagSeconds;
+    }
+
+    public static void setLevelOfDetailTier(Body body, int levelOfDetailTier) {
+        body.levelOfDetailTier = levelOfDetailTier;
+    }
+
+}
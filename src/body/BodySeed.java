@@ -32,6 +32,10 @@ public abstract class BodySeed {
     
     public double bodyCoefficientOfRestitution = .5;
 
+    public int bodyCollisionCategory = 1, bodyCollisionMask = -1, bodyCollisionGroup;
+
+    public boolean bodyIsSensor;
+
     public final void setBodyPosition(Vector2D position) {
         bodyPosition.set(position);
     }
@@ -67,6 +71,10 @@ public abstract class BodySeed {
         bodyMomentOfInertia = POSITIVE_INFINITY;
     }
     
+    public final void makeBodySensor() {
+        bodyIsSensor = true;
+    }
+    
     public final double getBodyMass() {
         return bodyMass;
     }
@@ -79,4 +87,10 @@ public abstract class BodySeed {
         bodyCoefficientOfRestitution = coefficientOfRestitution;
     }
 
+    public final void setBodyCollisionFilter(int category, int mask, int group) {
+        bodyCollisionCategory = category;
+        bodyCollisionMask = mask;
+        bodyCollisionGroup = group;
+    }
+
 }
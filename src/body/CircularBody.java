@@ -24,11 +24,13 @@ import convenience.Vector2D;
  */
 public final class CircularBody extends Body {
 
+    public static final int SHAPE_TYPE = 0;
+
     public final double radius;
     private final double radiusSquared;
 
     public CircularBody(double radius, double mass, double momentOfInertia, double coefficientOfRestitution) {
-        super(mass, momentOfInertia, coefficientOfRestitution);
+        super(SHAPE_TYPE, radius, mass, momentOfInertia, coefficientOfRestitution);
         this.radius = radius;
         radiusSquared = this.radius * this.radius;
     }
@@ -19,24 +19,34 @@ package body;
 import convenience.Vector2D;
 
 /**
+ * A contact between two bodies. Contacts are mutable so that they can be
+ * pooled and reused step after step; a contact is only valid until the next
+ * contacts are reported.
  *
  * @author Jonatan Larsson
  */
-public final class Contact extends BodyPair {
+public final class Contact {
 
-    public final Vector2D normal;
-    public final double depth;
-    public final Vector2D[] points;
+    public Body bodyA, bodyB;
+    public final Vector2D normal = new Vector2D();
+    public double depth;
+    public final Vector2D[] points = {new Vector2D(), new Vector2D()};
+    public int pointCount;
 
-    public Contact(Body bodyA, Body bodyB, Vector2D normal, double depth, Vector2D... points) {
-        super(bodyA, bodyB);
-        this.normal = normal;
+    public void set(Body bodyA, Body bodyB, double normalX, double normalY, double depth) {
+        this.bodyA = bodyA;
+        this.bodyB = bodyB;
+        normal.set(normalX, normalY);
         this.depth = depth;
-        this.points = points;
+        pointCount = 0;
     }
 
-    public Contact(BodyPair bodyPair, Vector2D normal, double depth, Vector2D... points) {
-        this(bodyPair.bodyA, bodyPair.bodyB, normal, depth, points);
+    public void addPoint(double x, double y) {
+        points[pointCount++].set(x, y);
+    }
+
+    public boolean contains(Body body) {
+        return (bodyA == body || bodyB == body);
     }
 
 }
@@ -24,51 +24,54 @@ import convenience.Vector2D;
  */
 public final class PolygonBody extends Body {
 
+    public static final int SHAPE_TYPE = 1, BOX_SHAPE_TYPE = 2;
+
+    public final PolygonShape shape;
     public final int vertexCount;
     private final Vector2D[] relativeVertices, relativeNormals;
     public final Vector2D[] vertices, normals;
 
     public PolygonBody(Vector2D[] relativeVertices, double mass, double inertiaTensor, double coefficientOfRestitution) {
-        super(mass, inertiaTensor, coefficientOfRestitution);
-
-        this.relativeVertices = relativeVertices.clone();
-        vertexCount = this.relativeVertices.length;
-        relativeNormals = new Vector2D[vertexCount];
-        for (int i = 1; i < vertexCount; i++) {
-            int previousVertexIndex = i - 1;
-            relativeNormals[previousVertexIndex] = Vector2D.drawing(relativeVertices[i], relativeVertices[previousVertexIndex]);
-            relativeNormals[previousVertexIndex].rotate90DegreesClockwise();
-            relativeNormals[previousVertexIndex].norm();
-        }
-        relativeNormals[vertexCount - 1] = Vector2D.drawing(relativeVertices[0], relativeVertices[vertexCount - 1]);
-        relativeNormals[vertexCount - 1].rotate90DegreesClockwise();
-        relativeNormals[vertexCount - 1].norm();
+        this(new PolygonShape(relativeVertices), mass, inertiaTensor, coefficientOfRestitution);
+    }
+
+    public PolygonBody(PolygonShape shape, double mass, double inertiaTensor, double coefficientOfRestitution) {
+        super(shape.isBox ? BOX_SHAPE_TYPE : SHAPE_TYPE, shape.boundingRadius, mass, inertiaTensor, coefficientOfRestitution);
+
+        this.shape = shape;
+        vertexCount = shape.vertexCount;
+        relativeVertices = shape.relativeVertices;
+        relativeNormals = shape.relativeNormals;
 
         vertices = new Vector2D[vertexCount];
         normals = new Vector2D[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            vertices[i] = new Vector2D();
+            normals[i] = new Vector2D();
+        }
     }
 
     public Vector2D[] copyRelativeVertices() {
-        Vector2D[] copies = new Vector2D[vertexCount];
-        for (int i = 0; i < vertexCount; i++) {
-            copies[i] = new Vector2D(relativeVertices[i]);
-        }
-        return copies;
+        return shape.copyRelativeVertices();
     }
 
     @Override
-    public void integrate(double seconds) {
-        super.integrate(seconds);
+    void integratePosition(double seconds) {
+        super.integratePosition(seconds);
         convertRelativeShapeAttributes();
     }
 
-    private void convertRelativeShapeAttributes() {
+    @Override
+    public void convertRelativeShapeAttributes() {
+        double cos = Math.cos(angle), sin = Math.sin(angle);
         for (int i = 0; i < vertexCount; i++) {
-            vertices[i] = new Vector2D(relativeVertices[i]);
-            vertices[i].rotate(angle);
-            vertices[i].add(position);
-
-            normals[i] = Vector2D.rotation(relativeNormals[i], angle);
+            Vector2D relativeVertex = relativeVertices[i], relativeNormal = relativeNormals[i];
+            vertices[i].set(
+                    relativeVertex.x * cos - relativeVertex.y * sin + position.x,
+                    relativeVertex.x * sin + relativeVertex.y * cos + position.y);
+            normals[i].set(
+                    relativeNormal.x * cos - relativeNormal.y * sin,
+                    relativeNormal.x * sin + relativeNormal.y * cos);
         }
     }
 
@@ -90,6 +93,11 @@ public final class PolygonBody extends Body {
 
     @Override
     public double minCoordinateAlong(Vector2D axisVec) {
+        if (shape.isBox) {
+            return boxCenterAlong(axisVec)
+                    - shape.halfExtent0 * Math.abs(normals[0].dot(axisVec))
+                    - shape.halfExtent1 * Math.abs(normals[1].dot(axisVec));
+        }
         double minCoordinate = Double.POSITIVE_INFINITY;
 
         for (Vector2D vertex : vertices) {
@@ -102,6 +110,15 @@ public final class PolygonBody extends Body {
         return minCoordinate;
     }
     
+    /**
+     * @param axisVec the axis
+     * @return the coordinate of the center of this body's box along the
+     * given axis, given that its shape is a box
+     */
+    public double boxCenterAlong(Vector2D axisVec) {
+        return (vertices[0].dot(axisVec) + vertices[2].dot(axisVec)) / 2;
+    }
+
     public Vector2D vertexLeftOfNormal(int normalIndex) {
         return vertices[normalIndex];
     }
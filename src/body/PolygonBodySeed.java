@@ -25,27 +25,50 @@ import convenience.Vector2D;
 public final class PolygonBodySeed extends BodySeed {
 
     public Vector2D[] bodyRelativeVertices;
+    private PolygonShape bodyShape;
 
     public void setBodyRelativeVertices(Vector2D... bodyVertices) {
         this.bodyRelativeVertices = bodyVertices;
     }
 
+    /**
+     * Makes the body a box of the given size, centered on its position and
+     * with its sides along the axes when its angle is zero.
+     *
+     * @param width the extent of the box along the x-axis
+     * @param height the extent of the box along the y-axis
+     */
+    public void setBodyBox(double width, double height) {
+        double halfWidth = width / 2, halfHeight = height / 2;
+        setBodyRelativeVertices(
+                new Vector2D(-halfWidth, -halfHeight), new Vector2D(halfWidth, -halfHeight),
+                new Vector2D(halfWidth, halfHeight), new Vector2D(-halfWidth, halfHeight));
+    }
+
+    public void setBodyShape(PolygonShape bodyShape) {
+        this.bodyShape = bodyShape;
+        bodyRelativeVertices = null;
+    }
+
+    /**
+     * Returns the shape of the body, built from the relative vertices unless
+     * a shape has been set. The shape is rebuilt whenever the vertices have
+     * changed, even if they were changed in place.
+     *
+     * @return the shape
+     */
+    public PolygonShape getBodyShape() {
+        if (bodyRelativeVertices != null && (bodyShape == null || !bodyShape.hasRelativeVertices(bodyRelativeVertices))) {
+            bodyShape = new PolygonShape(bodyRelativeVertices);
+        }
+        return bodyShape;
+    }
+
     @Override
     public void setBodyDensity(double density) {
-        bodyMass = 0;
-        bodyMomentOfInertia = 0;
-        
-        int previousIndex = bodyRelativeVertices.length - 1;
-        for (int i = 0; i < bodyRelativeVertices.length; i++) {
-            Vector2D a = bodyRelativeVertices[previousIndex], b = bodyRelativeVertices[i];
-            double crossProduct = a.cross(b);
-            bodyMass += crossProduct;
-            bodyMomentOfInertia += crossProduct * (a.magSquared() + b.magSquared() + a.dot(b));
-            
-            previousIndex = i;
-        }
-        bodyMass *= density / 2;
-        bodyMomentOfInertia *= density / 12;
+        PolygonShape shape = getBodyShape();
+        bodyMass = density * shape.area;
+        bodyMomentOfInertia = density * shape.unitMomentOfInertia;
     }
 
 }
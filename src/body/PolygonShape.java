@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package body;
+
+import convenience.Vector2D;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The immutable shape of a polygon, relative to the position of the bodies
+ * using it. Everything that only depends on the shape is computed once, so a
+ * single shape can be shared by any number of {@link PolygonBody} objects.
+ *
+ * A shape with four vertices whose edges meet at right angles is recognized
+ * as a box. Bodies with box shapes collide through routines that compute
+ * their extents in closed form from the half extents of the box instead of
+ * going through all of the vertices.
+ *
+ * @author Jonatan Larsson
+ */
+public final class PolygonShape {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /**
+     * Identifies the shape among all shapes, so that bodies sharing it can
+     * be recognized from outside, such as in exported state.
+     */
+    public final int id = NEXT_ID.getAndIncrement();
+
+    public final int vertexCount;
+    final Vector2D[] relativeVertices, relativeNormals;
+
+    public final double area;
+    public final double unitMomentOfInertia;
+    public final double boundingRadius;
+    private final Vector2D centroid;
+
+    public final boolean isBox;
+    /**
+     * For a box, half of its extent along the normal of its first and second
+     * edge respectively. Those normals act as the axes of the box.
+     */
+    public final double halfExtent0, halfExtent1;
+
+    /**
+     * @param relativeVertices the vertices, which are copied
+     * @throws IllegalArgumentException if the polygon has no area
+     */
+    public PolygonShape(Vector2D... relativeVertices) {
+        vertexCount = relativeVertices.length;
+        this.relativeVertices = new Vector2D[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            this.relativeVertices[i] = new Vector2D(relativeVertices[i]);
+        }
+
+        relativeNormals = new Vector2D[vertexCount];
+        double doubleArea = 0, twelvefoldMomentOfInertia = 0, maxMagSquared = 0;
+        centroid = new Vector2D();
+        int previousIndex = vertexCount - 1;
+        for (int i = 0; i < vertexCount; i++) {
+            Vector2D a = this.relativeVertices[previousIndex], b = this.relativeVertices[i];
+
+            relativeNormals[previousIndex] = Vector2D.drawing(b, a);
+            relativeNormals[previousIndex].rotate90DegreesClockwise();
+            relativeNormals[previousIndex].norm();
+
+            double crossProduct = a.cross(b);
+            doubleArea += crossProduct;
+            twelvefoldMomentOfInertia += crossProduct * (a.magSquared() + b.magSquared() + a.dot(b));
+            centroid.x += (a.x + b.x) * crossProduct;
+            centroid.y += (a.y + b.y) * crossProduct;
+            maxMagSquared = Math.max(maxMagSquared, b.magSquared());
+
+            previousIndex = i;
+        }
+
+        if (!(Math.abs(doubleArea) > 0)) {
+            throw new IllegalArgumentException("A polygon must have a non-zero area");
+        }
+        area = doubleArea / 2;
+        unitMomentOfInertia = twelvefoldMomentOfInertia / 12;
+        centroid.div(3 * doubleArea);
+        boundingRadius = Math.sqrt(maxMagSquared);
+
+        isBox = isRectangle(this.relativeVertices);
+        if (isBox) {
+            halfExtent0 = (this.relativeVertices[0].dot(relativeNormals[0]) - this.relativeVertices[2].dot(relativeNormals[0])) / 2;
+            halfExtent1 = (this.relativeVertices[1].dot(relativeNormals[1]) - this.relativeVertices[3].dot(relativeNormals[1])) / 2;
+        } else {
+            halfExtent0 = halfExtent1 = 0;
+        }
+    }
+
+    private static boolean isRectangle(Vector2D[] vertices) {
+        if (vertices.length != 4) {
+            return false;
+        }
+        Vector2D edge0 = Vector2D.drawing(vertices[0], vertices[1]), edge1 = Vector2D.drawing(vertices[1], vertices[2]);
+        Vector2D edge2 = Vector2D.drawing(vertices[2], vertices[3]), edge3 = Vector2D.drawing(vertices[3], vertices[0]);
+        double scale = edge0.magSquared() + edge1.magSquared(), tolerance = 1e-18 * scale;
+        return Vector2D.addition(edge0, edge2).magSquared() <= tolerance
+                && Vector2D.addition(edge1, edge3).magSquared() <= tolerance
+                && square(edge0.dot(edge1)) <= tolerance * scale;
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+
+    boolean hasRelativeVertices(Vector2D[] vertices) {
+        if (vertices.length != vertexCount) {
+            return false;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            if (vertices[i].x != relativeVertices[i].x || vertices[i].y != relativeVertices[i].y) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Vector2D[] copyRelativeVertices() {
+        Vector2D[] copies = new Vector2D[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            copies[i] = new Vector2D(relativeVertices[i]);
+        }
+        return copies;
+    }
+
+    public Vector2D copyCentroid() {
+        return new Vector2D(centroid);
+    }
+
+}
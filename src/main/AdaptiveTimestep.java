@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import java.util.ArrayList;
+
+/**
+ * Splits the time a farm is updated by into steps of varying length.
+ *
+ * A step is never so long that a moving body would travel more than half of
+ * its bounding radius during it. Beyond that, the step length grows by a
+ * quarter after every calm step and shrinks after a step whose contacts
+ * were too deep or whose solver left bodies still approaching each other,
+ * both measured relative to the size of the bodies involved. Time that is
+ * too short for the next step is carried over to the next update, so a calm
+ * farm may take a step only every few updates.
+ *
+ * @author Jonatan Larsson
+ */
+final class AdaptiveTimestep {
+
+    private static final double MAX_TRAVEL = 0.5, DEPTH_TOLERANCE = 0.25, GROWTH = 1.25, MAX_SHRINKING = 0.5;
+
+    private final double minSeconds, maxSeconds;
+    private double timestep, pendingSeconds;
+
+    AdaptiveTimestep(double minSeconds, double maxSeconds) {
+        if (!(0 < minSeconds && minSeconds <= maxSeconds)) {
+            throw new IllegalArgumentException("The minimum step must be positive and at most the maximum step");
+        }
+        this.minSeconds = minSeconds;
+        this.maxSeconds = maxSeconds;
+        timestep = minSeconds;
+    }
+
+    double getTimestep() {
+        return timestep;
+    }
+
+    double getPendingSeconds() {
+        return pendingSeconds;
+    }
+
+    /**
+     * Sets the length of the next step and the time carried over, as
+     * captured earlier, keeping the step length within the current bounds.
+     */
+    void restore(double timestep, double pendingSeconds) {
+        this.timestep = Math.min(Math.max(timestep, minSeconds), maxSeconds);
+        this.pendingSeconds = pendingSeconds;
+    }
+
+    void accumulate(double seconds) {
+        pendingSeconds += seconds;
+    }
+
+    int expectedStepCount(double seconds) {
+        return Math.max(1, (int) ((pendingSeconds + seconds) / timestep));
+    }
+
+    /**
+     * @return the length of the next step, or zero if less time than the
+     * next step is left to update by
+     */
+    double nextStep(ArrayList<Body> movingBodies) {
+        if (pendingSeconds < minSeconds) {
+            return 0;
+        }
+        double step = timestep;
+        for (int i = 0, bodyCount = movingBodies.size(); i < bodyCount; i++) {
+            Body body = movingBodies.get(i);
+            double speed = body.velocity.mag();
+            if (speed * step > MAX_TRAVEL * body.boundingRadius) {
+                step = MAX_TRAVEL * body.boundingRadius / speed;
+            }
+        }
+        step = Math.min(Math.max(step, minSeconds), maxSeconds);
+        if (step > pendingSeconds) {
+            return 0;
+        }
+        pendingSeconds -= step;
+        return step;
+    }
+
+    /**
+     * Adjusts the length of the following steps to how a step went.
+     *
+     * @param step the length of the step
+     * @param worstRelativeDepth the deepest contact of the step, relative to
+     * the smaller of its bodies
+     * @param residualRate the fastest approach left between two bodies after
+     * the last velocity iteration, in body sizes per second
+     */
+    void record(double step, double worstRelativeDepth, double residualRate) {
+        double next = step * GROWTH;
+        if (worstRelativeDepth > DEPTH_TOLERANCE) {
+            next = Math.min(next, step * Math.max(MAX_SHRINKING, DEPTH_TOLERANCE / worstRelativeDepth));
+        }
+        if (residualRate * step > DEPTH_TOLERANCE) {
+            next = Math.min(next, step * Math.max(MAX_SHRINKING, DEPTH_TOLERANCE / (residualRate * step)));
+        }
+        timestep = Math.min(Math.max(next, minSeconds), maxSeconds);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import convenience.Vector2D;
+
+/**
+ * A contact between two bodies that is tracked from the step in which the
+ * bodies start touching until the step in which they stop. The normal points
+ * from body A towards body B, and the points are those found in the most
+ * recent step in which the bodies were moved. Contacts are pooled, so an
+ * ended contact must not be used after it has been passed to
+ * {@link ContactListener#contactEnded(BodyContact)}.
+ *
+ * @author Jonatan Larsson
+ */
+public final class BodyContact {
+
+    public Body bodyA, bodyB;
+    public final Vector2D normal = new Vector2D();
+    public double depth;
+    public final Vector2D[] points = {new Vector2D(), new Vector2D()};
+    public int pointCount;
+
+    BodyContact nextOfA, previousOfA, nextOfB, previousOfB;
+    long lastSeenStep;
+
+    BodyContact() {
+    }
+
+    /**
+     * @return the body touching the given one, which must be one of the two
+     * bodies of the contact
+     */
+    public Body other(Body body) {
+        return (body == bodyA) ? bodyB : bodyA;
+    }
+
+    BodyContact next(Body body) {
+        return (body == bodyA) ? nextOfA : nextOfB;
+    }
+
+    BodyContact previous(Body body) {
+        return (body == bodyA) ? previousOfA : previousOfB;
+    }
+
+    void setNext(Body body, BodyContact next) {
+        if (body == bodyA) {
+            nextOfA = next;
+        } else {
+            nextOfB = next;
+        }
+    }
+
+    void setPrevious(Body body, BodyContact previous) {
+        if (body == bodyA) {
+            previousOfA = previous;
+        } else {
+            previousOfB = previous;
+        }
+    }
+
+}
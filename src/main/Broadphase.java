@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.BodyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the pairs of bodies whose bounding boxes overlap by sweeping the
+ * moving bodies along the x-axis. The moving bodies are kept sorted by the
+ * left edge of their bounding boxes between steps, so that re-sorting them is
+ * close to linear as long as they move coherently.
+ *
+ * Static bodies are kept apart in a {@link StaticGrid} that is only queried
+ * by moving bodies, so static bodies are never paired with each other.
+ *
+ * Pairs of bodies whose collision filters exclude each other are never
+ * reported, and neither are pairs of bodies that both lag behind in this
+ * update according to the {@link LevelOfDetail}. Since the pairs are found
+ * anew every step, a changed filter takes effect on the next step.
+ *
+ * @author Jonatan Larsson
+ */
+final class Broadphase {
+
+    private static final Comparator<Body> LEFT_EDGE_ORDER = Comparator.comparingDouble(Broadphase::minX);
+
+    private Body[] sortedBodies = new Body[16];
+    private double[] minXs = new double[16];
+    private int bodyCount;
+    private double maxBoundingRadius;
+    private boolean sortedForQueries;
+
+    private final StaticGrid staticGrid;
+    private final LevelOfDetail levelOfDetail;
+
+    Broadphase(double staticCellSize, LevelOfDetail levelOfDetail) {
+        staticGrid = new StaticGrid(staticCellSize);
+        this.levelOfDetail = levelOfDetail;
+    }
+
+    void add(Body body) {
+        sortedForQueries = false;
+        if (body.isStatic) {
+            staticGrid.add(body);
+        } else {
+            ensureCapacity(bodyCount + 1);
+            sortedBodies[bodyCount++] = body;
+            maxBoundingRadius = Math.max(maxBoundingRadius, body.boundingRadius);
+        }
+    }
+
+    void addAll(List<? extends Body> bodies) {
+        sortedForQueries = false;
+        ensureCapacity(bodyCount + bodies.size());
+        for (Body body : bodies) {
+            if (body.isStatic) {
+                staticGrid.add(body);
+            } else {
+                sortedBodies[bodyCount++] = body;
+                maxBoundingRadius = Math.max(maxBoundingRadius, body.boundingRadius);
+            }
+        }
+        Arrays.sort(sortedBodies, 0, bodyCount, LEFT_EDGE_ORDER);
+    }
+
+    void remove(Body body) {
+        sortedForQueries = false;
+        if (body.isStatic) {
+            staticGrid.remove(body);
+            return;
+        }
+        for (int i = 0; i < bodyCount; i++) {
+            if (sortedBodies[i] == body) {
+                System.arraycopy(sortedBodies, i + 1, sortedBodies, i, bodyCount - i - 1);
+                sortedBodies[--bodyCount] = null;
+                return;
+            }
+        }
+    }
+
+    void removeAll(Set<Body> bodies) {
+        sortedForQueries = false;
+        int keptBodyCount = 0;
+        for (int i = 0; i < bodyCount; i++) {
+            if (!bodies.contains(sortedBodies[i])) {
+                sortedBodies[keptBodyCount++] = sortedBodies[i];
+            }
+        }
+        Arrays.fill(sortedBodies, keptBodyCount, bodyCount, null);
+        bodyCount = keptBodyCount;
+
+        for (Body body : bodies) {
+            if (body.isStatic) {
+                staticGrid.remove(body);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > sortedBodies.length) {
+            int newCapacity = Math.max(capacity, 2 * sortedBodies.length);
+            sortedBodies = Arrays.copyOf(sortedBodies, newCapacity);
+            minXs = new double[newCapacity];
+        }
+    }
+
+    void findPairs(ArrayList<BodyPair> bodyPairs) {
+        bodyPairs.clear();
+        sort();
+        sweep(0, bodyCount, bodyPairs, bodyPairs);
+    }
+
+    /**
+     * Finds the pairs involving the sorted moving bodies within the given
+     * range. Pairs whose other moving body lies beyond the range are reported
+     * as crossing pairs. Different ranges may be swept concurrently.
+     */
+    void sweep(int start, int end, ArrayList<BodyPair> innerPairs, ArrayList<BodyPair> crossingPairs) {
+        for (int i = start; i < end; i++) {
+            Body a = sortedBodies[i];
+            boolean aIsDue = levelOfDetail.isDue(a);
+            double maxX = a.position.x + a.boundingRadius;
+            for (int j = i + 1; j < bodyCount && minXs[j] <= maxX; j++) {
+                Body b = sortedBodies[j];
+                if (Math.abs(a.position.y - b.position.y) <= a.boundingRadius + b.boundingRadius
+                        && (aIsDue || levelOfDetail.isDue(b)) && a.canCollideWith(b)) {
+                    (j < end ? innerPairs : crossingPairs).add(new BodyPair(a, b));
+                }
+            }
+            if (aIsDue) {
+                staticGrid.findPairs(a, innerPairs);
+            }
+        }
+    }
+
+    /**
+     * Sorts the moving bodies for the queries, unless they have not moved
+     * since they were last sorted for them.
+     */
+    void prepareQueries() {
+        if (!sortedForQueries) {
+            sort();
+            sortedForQueries = true;
+        }
+    }
+
+    /**
+     * Marks the moving bodies as moved, so that they are sorted again before
+     * the next query.
+     */
+    void invalidateQueries() {
+        sortedForQueries = false;
+    }
+
+    /**
+     * Adds the bodies whose bounding boxes overlap the given box to the
+     * result, using the bounding circles of the moving bodies. The moving
+     * bodies whose left edges lie close enough to the box are found by
+     * binary search. Queries must be prepared first, after which they may be
+     * run concurrently.
+     */
+    void query(double minX, double minY, double maxX, double maxY, List<Body> result) {
+        int low = 0, high = bodyCount;
+        double lowestMinX = minX - 2 * maxBoundingRadius;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (minXs[middle] < lowestMinX) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < bodyCount && minXs[i] <= maxX; i++) {
+            Body body = sortedBodies[i];
+            if (body.position.x + body.boundingRadius >= minX
+                    && body.position.y + body.boundingRadius >= minY
+                    && body.position.y - body.boundingRadius <= maxY) {
+                result.add(body);
+            }
+        }
+        staticGrid.query(minX, minY, maxX, maxY, result);
+    }
+
+    int movingBodyCount() {
+        return bodyCount;
+    }
+
+    Body movingBodyAt(int sortedIndex) {
+        return sortedBodies[sortedIndex];
+    }
+
+    void sort() {
+        for (int i = 0; i < bodyCount; i++) {
+            Body body = sortedBodies[i];
+            double minX = minX(body);
+
+            int j = i - 1;
+            while (j >= 0 && minXs[j] > minX) {
+                sortedBodies[j + 1] = sortedBodies[j];
+                minXs[j + 1] = minXs[j];
+                j--;
+            }
+            sortedBodies[j + 1] = body;
+            minXs[j + 1] = minX;
+        }
+    }
+
+    private static double minX(Body body) {
+        return body.position.x - body.boundingRadius;
+    }
+
+}
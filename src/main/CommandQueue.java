@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.BodySeed;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Changes to a farm submitted by any thread, applied in order by the
+ * updating thread. Runs of consecutive growths and of consecutive
+ * destructions are applied as single batches.
+ *
+ * The queue can be closed to further commands. Adding takes a shared lock
+ * and closing an exclusive one, so a command is either added before the
+ * queue is found empty and closed or rejected after.
+ *
+ * @author Jonatan Larsson
+ */
+final class CommandQueue {
+
+    private final ConcurrentLinkedQueue<Object> commands = new ConcurrentLinkedQueue<>();
+    private final ReentrantReadWriteLock closingLock = new ReentrantReadWriteLock();
+    private boolean isClosed;
+
+    private final ArrayList<BodySeed> pendingSeeds = new ArrayList<>();
+    private final ArrayList<CompletableFuture<Body>> pendingGrowths = new ArrayList<>();
+    private final ArrayList<Body> pendingDestructions = new ArrayList<>();
+
+    CompletableFuture<Body> addGrowth(BodySeed bodySeed) {
+        Growth growth = new Growth(bodySeed);
+        add(growth);
+        return growth.future;
+    }
+
+    void addDestruction(Body body) {
+        add(new Destruction(body));
+    }
+
+    void add(Runnable command) {
+        add((Object) command);
+    }
+
+    private void add(Object command) {
+        closingLock.readLock().lock();
+        try {
+            if (isClosed) {
+                throw new IllegalStateException("The farm is being recorded for replay");
+            }
+            commands.add(command);
+        } finally {
+            closingLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the queue to further commands if it is empty.
+     *
+     * @return whether the queue was empty and is now closed
+     */
+    boolean close() {
+        closingLock.writeLock().lock();
+        try {
+            isClosed = commands.isEmpty();
+            return isClosed;
+        } finally {
+            closingLock.writeLock().unlock();
+        }
+    }
+
+    void open() {
+        closingLock.writeLock().lock();
+        try {
+            isClosed = false;
+        } finally {
+            closingLock.writeLock().unlock();
+        }
+    }
+
+    void apply(Farm farm) {
+        for (Object command = commands.poll(); command != null; command = commands.poll()) {
+            if (!(command instanceof Growth)) {
+                growPendingBodies(farm);
+            }
+            if (!(command instanceof Destruction)) {
+                destroyPendingBodies(farm);
+            }
+
+            if (command instanceof Growth) {
+                pendingSeeds.add(((Growth) command).bodySeed);
+                pendingGrowths.add(((Growth) command).future);
+            } else if (command instanceof Destruction) {
+                pendingDestructions.add(((Destruction) command).body);
+            } else {
+                ((Runnable) command).run();
+            }
+        }
+        growPendingBodies(farm);
+        destroyPendingBodies(farm);
+    }
+
+    /**
+     * Grows the pending bodies in a single pass. If a seed is rejected, the
+     * bodies are grown one at a time instead, so that only the growth of
+     * that seed fails.
+     */
+    private void growPendingBodies(Farm farm) {
+        if (pendingSeeds.isEmpty()) {
+            return;
+        }
+        try {
+            List<Body> grownBodies = farm.growBodies(pendingSeeds);
+            for (int i = 0; i < grownBodies.size(); i++) {
+                pendingGrowths.get(i).complete(grownBodies.get(i));
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < pendingSeeds.size(); i++) {
+                try {
+                    pendingGrowths.get(i).complete(farm.growBody(pendingSeeds.get(i)));
+                } catch (RuntimeException growthFailure) {
+                    pendingGrowths.get(i).completeExceptionally(growthFailure);
+                }
+            }
+        }
+        pendingSeeds.clear();
+        pendingGrowths.clear();
+    }
+
+    private void destroyPendingBodies(Farm farm) {
+        if (!pendingDestructions.isEmpty()) {
+            farm.destroyBodies(pendingDestructions);
+            pendingDestructions.clear();
+        }
+    }
+
+    private static final class Growth {
+
+        final BodySeed bodySeed;
+        final CompletableFuture<Body> future = new CompletableFuture<>();
+
+        Growth(BodySeed bodySeed) {
+            this.bodySeed = bodySeed;
+        }
+
+    }
+
+    private static final class Destruction {
+
+        final Body body;
+
+        Destruction(Body body) {
+            this.body = body;
+        }
+
+    }
+
+}
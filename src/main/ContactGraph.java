@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The contacts between bodies, tracked from step to step. The contacts of
+ * each body are kept in a linked list running through the contacts
+ * themselves, so finding the contacts of a body takes time proportional to
+ * their number. The first contact of each body that has any is found in an
+ * identity map, which only holds the bodies currently in contact, and the
+ * contact between two bodies by a hash table keyed on both ids.
+ *
+ * Pairs of bodies that are both static or lag behind in a step according to
+ * the {@link LevelOfDetail} are not reported in that step, so their contacts
+ * are kept as they were. The contacts of a destroyed body end when it is
+ * destroyed, whatever it was touching. Sensors are not resolved against other
+ * bodies, so they never appear in the contact log and have no contacts.
+ *
+ * @author Jonatan Larsson
+ */
+final class ContactGraph {
+
+    private final LevelOfDetail levelOfDetail;
+    private final ContactListener listener;
+
+    private final IdentityHashMap<Body, BodyContact> firstContacts = new IdentityHashMap<>();
+    private final PairTable<BodyContact> pairContacts = new PairTable<>();
+    private final ArrayList<BodyContact> contacts = new ArrayList<>(), pool = new ArrayList<>();
+    private final ArrayList<BodyContact> begun = new ArrayList<>(), persisted = new ArrayList<>(), ended = new ArrayList<>();
+    private long step;
+
+    ContactGraph(LevelOfDetail levelOfDetail, ContactListener listener) {
+        this.levelOfDetail = levelOfDetail;
+        this.listener = listener;
+    }
+
+    void update(ContactLog contactLog) {
+        step++;
+        for (int i = 0; i < contactLog.contactCount; i++) {
+            Body a = contactLog.bodiesA[i], b = contactLog.bodiesB[i];
+            long key = PairTable.key(a, b);
+            BodyContact contact = pairContacts.get(key);
+            if (contact == null) {
+                contact = pool.isEmpty() ? new BodyContact() : pool.remove(pool.size() - 1);
+                contact.bodyA = a;
+                contact.bodyB = b;
+                link(contact, a);
+                link(contact, b);
+                pairContacts.put(key, contact);
+                contacts.add(contact);
+                begun.add(contact);
+            } else if (contact.lastSeenStep == step) {
+                continue;
+            } else {
+                persisted.add(contact);
+            }
+            contact.lastSeenStep = step;
+
+            double sign = (contact.bodyA == a) ? 1 : -1;
+            contact.normal.set(sign * contactLog.normalXs[i], sign * contactLog.normalYs[i]);
+            contact.depth = contactLog.depths[i];
+            contact.pointCount = contactLog.pointCounts[i];
+            for (int j = 0; j < contact.pointCount; j++) {
+                contact.points[j].set(contactLog.pointXs[2 * i + j], contactLog.pointYs[2 * i + j]);
+            }
+        }
+
+        int keptCount = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            BodyContact contact = contacts.get(i);
+            if (contact.lastSeenStep == step || !isMoved(contact.bodyA) && !isMoved(contact.bodyB)) {
+                contacts.set(keptCount++, contact);
+            } else {
+                end(contact);
+            }
+        }
+        truncateContacts(keptCount);
+    }
+
+    /**
+     * Ends every contact of the given bodies, which are being destroyed.
+     */
+    void removeBodies(Set<Body> bodies) {
+        int keptCount = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            BodyContact contact = contacts.get(i);
+            if (bodies.contains(contact.bodyA) || bodies.contains(contact.bodyB)) {
+                end(contact);
+            } else {
+                contacts.set(keptCount++, contact);
+            }
+        }
+        truncateContacts(keptCount);
+    }
+
+    /**
+     * Ends every contact of the given body, which is being destroyed.
+     */
+    void removeBody(Body body) {
+        if (!firstContacts.containsKey(body)) {
+            return;
+        }
+        int keptCount = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            BodyContact contact = contacts.get(i);
+            if (contact.bodyA == body || contact.bodyB == body) {
+                end(contact);
+            } else {
+                contacts.set(keptCount++, contact);
+            }
+        }
+        truncateContacts(keptCount);
+    }
+
+    private void end(BodyContact contact) {
+        unlink(contact, contact.bodyA);
+        unlink(contact, contact.bodyB);
+        pairContacts.remove(PairTable.key(contact.bodyA, contact.bodyB));
+        ended.add(contact);
+    }
+
+    private void truncateContacts(int size) {
+        while (contacts.size() > size) {
+            contacts.remove(contacts.size() - 1);
+        }
+    }
+
+    private boolean isMoved(Body body) {
+        return !body.isStatic && levelOfDetail.isDue(body);
+    }
+
+    /**
+     * Passes the changes of the last update on to the listener, and pools
+     * the ended contacts.
+     */
+    void dispatch() {
+        if (listener != null) {
+            for (int i = 0; i < begun.size(); i++) {
+                listener.contactBegan(begun.get(i));
+            }
+            for (int i = 0; i < persisted.size(); i++) {
+                listener.contactPersisted(persisted.get(i));
+            }
+            for (int i = 0; i < ended.size(); i++) {
+                listener.contactEnded(ended.get(i));
+            }
+        }
+        for (int i = 0; i < ended.size(); i++) {
+            BodyContact contact = ended.get(i);
+            contact.bodyA = contact.bodyB = null;
+            pool.add(contact);
+        }
+        begun.clear();
+        persisted.clear();
+        ended.clear();
+    }
+
+    void findContacts(Body body, List<BodyContact> result) {
+        for (BodyContact contact = firstContacts.get(body); contact != null; contact = contact.next(body)) {
+            result.add(contact);
+        }
+    }
+
+    private void link(BodyContact contact, Body body) {
+        BodyContact first = firstContacts.put(body, contact);
+        contact.setPrevious(body, null);
+        contact.setNext(body, first);
+        if (first != null) {
+            first.setPrevious(body, contact);
+        }
+    }
+
+    private void unlink(BodyContact contact, Body body) {
+        BodyContact previous = contact.previous(body), next = contact.next(body);
+        if (previous != null) {
+            previous.setNext(body, next);
+        } else if (next != null) {
+            firstContacts.put(body, next);
+        } else {
+            firstContacts.remove(body);
+        }
+        if (next != null) {
+            next.setPrevious(body, previous);
+        }
+        contact.setNext(body, null);
+        contact.setPrevious(body, null);
+    }
+
+}
@@ -31,22 +31,92 @@ import java.util.List;
  */
 final class ContactHandler {
 
+    private double[] startPositions = new double[64];
+
+    private boolean measuringResidual;
+    private double residualRate;
+
     void handleContacts(List<Contact> contactReport) {
-        for (Contact contact : contactReport) {
-            handleSingleContact(contact);
+        handleContacts(contactReport, 1, 1);
+    }
+
+    /**
+     * Resolves the contacts, first applying impulses and moving bodies apart
+     * contact by contact, then applying impulses again in further velocity
+     * iterations and moving bodies apart again in further position passes.
+     * A position pass only corrects what is left of each penetration after
+     * the corrections made so far.
+     */
+    void handleContacts(List<Contact> contactReport, int velocityIterations, int positionPasses) {
+        int contactCount = contactReport.size();
+        if (positionPasses > 1) {
+            rememberStartPositions(contactReport);
+        }
+
+        residualRate = 0;
+        for (int i = 0; i < contactCount; i++) {
+            handleSingleContact(contactReport.get(i));
+        }
+        for (int iteration = 1; iteration < velocityIterations; iteration++) {
+            measuringResidual = (iteration == velocityIterations - 1);
+            for (int i = 0; i < contactCount; i++) {
+                computeAndApplyImpulses(contactReport.get(i));
+            }
+        }
+        measuringResidual = false;
+        for (int pass = 1; pass < positionPasses; pass++) {
+            for (int i = 0; i < contactCount; i++) {
+                Contact contact = contactReport.get(i);
+                double remainingDepth = remainingDepth(contact, 4 * i);
+                if (remainingDepth > 0) {
+                    moveApart(contact, remainingDepth);
+                }
+            }
         }
     }
 
+    /**
+     * @return how fast the bodies of a contact still approached each other
+     * in the last velocity iteration of the last contacts handled, in
+     * bounding radii of the smaller body per second, or zero if there was
+     * only one iteration
+     */
+    double getResidualRate() {
+        return residualRate;
+    }
+
+    private void rememberStartPositions(List<Contact> contactReport) {
+        if (startPositions.length < 4 * contactReport.size()) {
+            startPositions = new double[8 * contactReport.size()];
+        }
+        for (int i = 0, offset = 0; i < contactReport.size(); i++, offset += 4) {
+            Contact contact = contactReport.get(i);
+            startPositions[offset] = contact.bodyA.position.x;
+            startPositions[offset + 1] = contact.bodyA.position.y;
+            startPositions[offset + 2] = contact.bodyB.position.x;
+            startPositions[offset + 3] = contact.bodyB.position.y;
+        }
+    }
+
+    private double remainingDepth(Contact c, int offset) {
+        double movementA = (c.bodyA.position.x - startPositions[offset]) * c.normal.x
+                + (c.bodyA.position.y - startPositions[offset + 1]) * c.normal.y;
+        double movementB = (c.bodyB.position.x - startPositions[offset + 2]) * c.normal.x
+                + (c.bodyB.position.y - startPositions[offset + 3]) * c.normal.y;
+        return c.depth - (movementB - movementA);
+    }
+
     private void handleSingleContact(Contact c) {
         computeAndApplyImpulses(c);
-        moveApart(c);
+        moveApart(c, c.depth);
     }
 
     private void computeAndApplyImpulses(Contact c) {
         Body a = c.bodyA, b = c.bodyB;
         Vector2D n = c.normal;
 
-        for (Vector2D contactPoint : c.points) {
+        for (int i = 0; i < c.pointCount; i++) {
+            Vector2D contactPoint = c.points[i];
             Vector2D perpendicularOffsetA = perpendicularContactPointOffset(contactPoint, a);
             Vector2D perpendicularOffsetB = perpendicularContactPointOffset(contactPoint, b);
 
@@ -58,6 +128,9 @@ final class ContactHandler {
             if (smashingSpeed <= 0) {
                 continue;
             }
+            if (measuringResidual) {
+                residualRate = Math.max(residualRate, smashingSpeed / Math.min(a.boundingRadius, b.boundingRadius));
+            }
 
             double coefficientOfRestitution = Math.min(a.getCoefficientOfRestitution(), b.getCoefficientOfRestitution());
 
@@ -98,17 +171,21 @@ final class ContactHandler {
     }
 
     private void applyImpulse(Vector2D impulse, Body affectedBody) {
-        affectedBody.addToVelocity(division(impulse, affectedBody.mass));
+        if (!affectedBody.isStatic) {
+            affectedBody.addToVelocity(division(impulse, affectedBody.mass));
+        }
     }
 
     private void applyAngularImpulse(double angularImpulse, Body affectedBody) {
-        affectedBody.addToAngularVelocity(angularImpulse / affectedBody.momentOfInertia);
+        if (!affectedBody.isStatic) {
+            affectedBody.addToAngularVelocity(angularImpulse / affectedBody.momentOfInertia);
+        }
     }
 
-    private void moveApart(Contact c) {
+    private void moveApart(Contact c, double depth) {
         Body a = c.bodyA, b = c.bodyB;
         
-        Vector2D positionCorrection = multiplication(c.normal, .5 * c.depth);
+        Vector2D positionCorrection = multiplication(c.normal, .5 * depth);
         if (a.isStatic) {
             b.position.add(positionCorrection);
         } else if (b.isStatic) {
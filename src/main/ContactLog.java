@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.Contact;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of the contacts found in the last substep of a step, kept in
+ * reused arrays since the contacts themselves are pooled.
+ *
+ * @author Jonatan Larsson
+ */
+final class ContactLog {
+
+    int contactCount;
+    Body[] bodiesA = new Body[16], bodiesB = new Body[16];
+    double[] normalXs = new double[16], normalYs = new double[16], depths = new double[16];
+    int[] pointCounts = new int[16];
+    double[] pointXs = new double[32], pointYs = new double[32];
+
+    void clear() {
+        Arrays.fill(bodiesA, 0, contactCount, null);
+        Arrays.fill(bodiesB, 0, contactCount, null);
+        contactCount = 0;
+    }
+
+    void add(List<Contact> contacts) {
+        ensureCapacity(contactCount + contacts.size());
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = contacts.get(i);
+            int index = contactCount++;
+            bodiesA[index] = contact.bodyA;
+            bodiesB[index] = contact.bodyB;
+            normalXs[index] = contact.normal.x;
+            normalYs[index] = contact.normal.y;
+            depths[index] = contact.depth;
+            pointCounts[index] = contact.pointCount;
+            for (int j = 0; j < contact.pointCount; j++) {
+                pointXs[2 * index + j] = contact.points[j].x;
+                pointYs[2 * index + j] = contact.points[j].y;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bodiesA.length) {
+            int newCapacity = Math.max(capacity, 2 * bodiesA.length);
+            bodiesA = Arrays.copyOf(bodiesA, newCapacity);
+            bodiesB = Arrays.copyOf(bodiesB, newCapacity);
+            normalXs = Arrays.copyOf(normalXs, newCapacity);
+            normalYs = Arrays.copyOf(normalYs, newCapacity);
+            depths = Arrays.copyOf(depths, newCapacity);
+            pointCounts = Arrays.copyOf(pointCounts, newCapacity);
+            pointXs = Arrays.copyOf(pointXs, 2 * newCapacity);
+            pointYs = Arrays.copyOf(pointYs, 2 * newCapacity);
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Contact;
+import java.util.Arrays;
+
+/**
+ * Hands out contacts that are reused once the pool is reset, so that no
+ * contacts are created once the pool has grown to the number of contacts a
+ * step needs.
+ *
+ * @author Jonatan Larsson
+ */
+final class ContactPool {
+
+    private Contact[] contacts;
+    private int usedCount;
+
+    ContactPool(int initialCapacity) {
+        contacts = new Contact[initialCapacity];
+        for (int i = 0; i < initialCapacity; i++) {
+            contacts[i] = new Contact();
+        }
+    }
+
+    Contact obtain() {
+        if (usedCount == contacts.length) {
+            contacts = Arrays.copyOf(contacts, 2 * usedCount);
+            for (int i = usedCount; i < contacts.length; i++) {
+                contacts[i] = new Contact();
+            }
+        }
+        return contacts[usedCount++];
+    }
+
+    /**
+     * Takes back every contact handed out, forgetting their bodies.
+     */
+    void reset() {
+        for (int i = 0; i < usedCount; i++) {
+            contacts[i].bodyA = contacts[i].bodyB = null;
+        }
+        usedCount = 0;
+    }
+
+}
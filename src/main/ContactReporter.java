@@ -23,111 +23,315 @@ import body.CircularBody;
 import body.Contact;
 import body.PolygonBody;
 import convenience.Vector2D;
-import static convenience.Vector2D.division;
-import static convenience.Vector2D.drawing;
-import static convenience.Vector2D.multiplication;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
+ * Finds the contacts of pairs of bodies.
+ *
+ * The pairs are first sorted into bins by the shape types of their bodies,
+ * each pair ordered so that the body of the lower shape type comes first.
+ * Each bin is then handed to the routine registered for its combination of
+ * shape types, which runs through the whole bin knowing the types of both
+ * bodies. Supporting a new shape type is a matter of registering routines
+ * for its combinations rather than of adding another branch per pair.
+ *
+ * Pairs involving a sensor are kept out of the bins. They are only tested
+ * for overlap by the test registered along with the routine, which finds
+ * neither normals nor points, and the overlapping ones are kept apart from
+ * the contacts. Pairs of two sensors are ignored.
  *
  * @author Jonatan Larsson
  */
 final class ContactReporter {
 
+    private final PairBin[] bins = new PairBin[Body.SHAPE_TYPE_COUNT * Body.SHAPE_TYPE_COUNT];
+    private final BinRoutine[] routines = new BinRoutine[bins.length];
+    private final OverlapTest[] overlapTests = new OverlapTest[bins.length];
+
+    private final ContactPool contactPool = new ContactPool(64);
+    private final ArrayList<Contact> contacts = new ArrayList<>();
+    private final ArrayList<BodyPair> overlaps = new ArrayList<>();
+
+    private final double[] boxDepths = new double[4];
+    private int normalIndex;
+
+    private double worstRelativeDepth;
+
+    ContactReporter() {
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] = new PairBin();
+        }
+        register(CircularBody.SHAPE_TYPE, CircularBody.SHAPE_TYPE, this::circleVSCircleContacts, this::circleVSCircleOverlap);
+        register(CircularBody.SHAPE_TYPE, PolygonBody.SHAPE_TYPE, this::circleVSPolygonContacts, this::circleVSPolygonOverlap);
+        register(CircularBody.SHAPE_TYPE, PolygonBody.BOX_SHAPE_TYPE, this::circleVSBoxContacts, this::circleVSBoxOverlap);
+        register(PolygonBody.SHAPE_TYPE, PolygonBody.SHAPE_TYPE, this::polygonVSPolygonContacts, this::polygonVSPolygonOverlap);
+        register(PolygonBody.SHAPE_TYPE, PolygonBody.BOX_SHAPE_TYPE, this::polygonVSPolygonContacts, this::polygonVSPolygonOverlap);
+        register(PolygonBody.BOX_SHAPE_TYPE, PolygonBody.BOX_SHAPE_TYPE, this::boxVSBoxContacts, this::polygonVSPolygonOverlap);
+    }
+
+    private void register(int lowerShapeType, int higherShapeType, BinRoutine routine, OverlapTest overlapTest) {
+        routines[lowerShapeType * Body.SHAPE_TYPE_COUNT + higherShapeType] = routine;
+        overlapTests[lowerShapeType * Body.SHAPE_TYPE_COUNT + higherShapeType] = overlapTest;
+    }
+
     List<Contact> report(ArrayList<BodyPair> bodyPairs) {
-        return bodyPairs.stream()
-                .map(bodyPair -> contact(bodyPair))
-                .filter(contact -> contact != null)
-                .collect(Collectors.toList());
+        overlaps.clear();
+        for (int i = 0, pairCount = bodyPairs.size(); i < pairCount; i++) {
+            BodyPair bodyPair = bodyPairs.get(i);
+            if (bodyPair.bodyA.isSensor() || bodyPair.bodyB.isSensor()) {
+                if (!(bodyPair.bodyA.isSensor() && bodyPair.bodyB.isSensor()) && overlap(bodyPair.bodyA, bodyPair.bodyB)) {
+                    overlaps.add(bodyPair);
+                }
+                continue;
+            }
+            int shapeTypeA = bodyPair.bodyA.shapeType, shapeTypeB = bodyPair.bodyB.shapeType;
+            if (shapeTypeA <= shapeTypeB) {
+                bins[shapeTypeA * Body.SHAPE_TYPE_COUNT + shapeTypeB].add(bodyPair.bodyA, bodyPair.bodyB);
+            } else {
+                bins[shapeTypeB * Body.SHAPE_TYPE_COUNT + shapeTypeA].add(bodyPair.bodyB, bodyPair.bodyA);
+            }
+        }
+
+        contactPool.reset();
+        contacts.clear();
+        for (int i = 0; i < bins.length; i++) {
+            PairBin bin = bins[i];
+            if (bin.pairCount > 0) {
+                routines[i].addContacts(bin.bodiesA, bin.bodiesB, bin.pairCount, contacts);
+                bin.clear();
+            }
+        }
+
+        worstRelativeDepth = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = contacts.get(i);
+            worstRelativeDepth = Math.max(worstRelativeDepth,
+                    contact.depth / Math.min(contact.bodyA.boundingRadius, contact.bodyB.boundingRadius));
+        }
+        return contacts;
     }
 
-    private Contact contact(BodyPair bodyPair) {
-        if (bodyPair.bodyA.isStatic && bodyPair.bodyB.isStatic) {
-            return null;
+    /**
+     * @return the overlapping pairs involving a sensor found by the last
+     * report
+     */
+    List<BodyPair> getOverlaps() {
+        return overlaps;
+    }
+
+    /**
+     * @return the depth of the deepest contact of the last report, relative
+     * to the bounding radius of the smaller of its bodies
+     */
+    double getWorstRelativeDepth() {
+        return worstRelativeDepth;
+    }
+
+    /**
+     * Finds the contacts of a bin of pairs whose bodies are known to be of
+     * the shape types the routine is registered for.
+     */
+    private interface BinRoutine {
+
+        void addContacts(Body[] bodiesA, Body[] bodiesB, int pairCount, List<Contact> contacts);
+
+    }
+
+    /**
+     * Tells whether two bodies known to be of the shape types the test is
+     * registered for overlap.
+     */
+    private interface OverlapTest {
+
+        boolean overlap(Body a, Body b);
+
+    }
+
+    private static final class PairBin {
+
+        Body[] bodiesA = new Body[16], bodiesB = new Body[16];
+        int pairCount;
+
+        void add(Body bodyA, Body bodyB) {
+            if (pairCount == bodiesA.length) {
+                bodiesA = Arrays.copyOf(bodiesA, 2 * pairCount);
+                bodiesB = Arrays.copyOf(bodiesB, 2 * pairCount);
+            }
+            bodiesA[pairCount] = bodyA;
+            bodiesB[pairCount] = bodyB;
+            pairCount++;
+        }
+
+        void clear() {
+            Arrays.fill(bodiesA, 0, pairCount, null);
+            Arrays.fill(bodiesB, 0, pairCount, null);
+            pairCount = 0;
+        }
+
+    }
+
+    private void circleVSCircleContacts(Body[] bodiesA, Body[] bodiesB, int pairCount, List<Contact> contacts) {
+        for (int i = 0; i < pairCount; i++) {
+            Contact contact = circleVSCircleContact((CircularBody) bodiesA[i], (CircularBody) bodiesB[i]);
+            if (contact != null) {
+                contacts.add(contact);
+            }
+        }
+    }
+
+    private void circleVSPolygonContacts(Body[] bodiesA, Body[] bodiesB, int pairCount, List<Contact> contacts) {
+        for (int i = 0; i < pairCount; i++) {
+            Contact contact = circleVSPolygonContact((CircularBody) bodiesA[i], (PolygonBody) bodiesB[i]);
+            if (contact != null) {
+                contacts.add(contact);
+            }
         }
+    }
+
+    private void polygonVSPolygonContacts(Body[] bodiesA, Body[] bodiesB, int pairCount, List<Contact> contacts) {
+        for (int i = 0; i < pairCount; i++) {
+            Contact contact = polygonVSPolygonContact((PolygonBody) bodiesA[i], (PolygonBody) bodiesB[i]);
+            if (contact != null) {
+                contacts.add(contact);
+            }
+        }
+    }
 
-        boolean bodyAIsCircular = (bodyPair.bodyA instanceof CircularBody);
-        boolean bodyBIsCircular = (bodyPair.bodyB instanceof CircularBody);
+    private void circleVSBoxContacts(Body[] bodiesA, Body[] bodiesB, int pairCount, List<Contact> contacts) {
+        for (int i = 0; i < pairCount; i++) {
+            Contact contact = circleVSBoxContact((CircularBody) bodiesA[i], (PolygonBody) bodiesB[i]);
+            if (contact != null) {
+                contacts.add(contact);
+            }
+        }
+    }
 
-        if (bodyAIsCircular && bodyBIsCircular) {
-            return circleVSCircleContact(bodyPair);
-        } else if (bodyAIsCircular) {
-            return circleVSPolygonContact((CircularBody) bodyPair.bodyA, (PolygonBody) bodyPair.bodyB);//contactTemplateUsingOneBodysNormals((PolygonBody) bodyPair.bodyB, bodyPair.bodyA);
-        } else if (bodyBIsCircular) {
-            return circleVSPolygonContact((CircularBody) bodyPair.bodyB, (PolygonBody) bodyPair.bodyA);
-        } else {
-            return polygonVSPolygonContact(bodyPair);
+    private void boxVSBoxContacts(Body[] bodiesA, Body[] bodiesB, int pairCount, List<Contact> contacts) {
+        for (int i = 0; i < pairCount; i++) {
+            Contact contact = boxVSBoxContact((PolygonBody) bodiesA[i], (PolygonBody) bodiesB[i]);
+            if (contact != null) {
+                contacts.add(contact);
+            }
         }
     }
 
-    private Contact circleVSCircleContact(BodyPair bodyPair) {
-        CircularBody a = (CircularBody) bodyPair.bodyA;
-        CircularBody b = (CircularBody) bodyPair.bodyB;
+    /**
+     * Tells whether two bodies overlap, using the same separating axes as
+     * the contact routines.
+     */
+    private boolean overlap(Body a, Body b) {
+        if (a.shapeType <= b.shapeType) {
+            return overlapTests[a.shapeType * Body.SHAPE_TYPE_COUNT + b.shapeType].overlap(a, b);
+        }
+        return overlapTests[b.shapeType * Body.SHAPE_TYPE_COUNT + a.shapeType].overlap(b, a);
+    }
 
-        Vector2D posDiff = drawing(a.position, b.position);
-        double distSquared = posDiff.magSquared();
+    private boolean circleVSCircleOverlap(Body a, Body b) {
+        double offsetX = b.position.x - a.position.x, offsetY = b.position.y - a.position.y;
+        double radiusSum = ((CircularBody) a).radius + ((CircularBody) b).radius;
+        return offsetX * offsetX + offsetY * offsetY < radiusSum * radiusSum;
+    }
+
+    private boolean circleVSPolygonOverlap(Body circularBody, Body polygonBody) {
+        return penetration((PolygonBody) polygonBody, circularBody) > 0;
+    }
+
+    private boolean circleVSBoxOverlap(Body circularBody, Body box) {
+        PolygonBody polygonBox = (PolygonBody) box;
+        double radius = ((CircularBody) circularBody).radius;
+        return boxPenetration(polygonBox, circularBody.position.dot(polygonBox.normals[0]), circularBody.position.dot(polygonBox.normals[1]),
+                radius, radius) > 0;
+    }
+
+    private boolean polygonVSPolygonOverlap(Body a, Body b) {
+        return penetration((PolygonBody) a, b) > 0 && penetration((PolygonBody) b, a) > 0;
+    }
+
+    private Contact circleVSCircleContact(CircularBody a, CircularBody b) {
+        double offsetX = b.position.x - a.position.x, offsetY = b.position.y - a.position.y;
+        double distSquared = offsetX * offsetX + offsetY * offsetY;
         double radiusSum = a.radius + b.radius;
         if (distSquared >= radiusSum * radiusSum) {
             return null;
         }
 
         double dist = Math.sqrt(distSquared);
-        double contactPenetration = radiusSum - dist;
-        Vector2D contactNormal = division(posDiff, dist);
-        Vector2D contactPoint = multiplication(contactNormal, -b.radius);
-        contactPoint.add(b.position);
-        return new Contact(bodyPair, contactNormal, contactPenetration, contactPoint);
+        Contact contact = contactPool.obtain();
+        contact.set(a, b, offsetX / dist, offsetY / dist, radiusSum - dist);
+        contact.addPoint(b.position.x - contact.normal.x * b.radius, b.position.y - contact.normal.y * b.radius);
+        return contact;
     }
 
     private Contact circleVSPolygonContact(CircularBody circularBody, PolygonBody polygonBody) {
-        ContactTemplate contactTemplate = contactTemplate(polygonBody, circularBody);
-        if (contactTemplate == null) {
+        double depth = penetration(polygonBody, circularBody);
+        if (depth <= 0) {
             return null;
         }
-        Vector2D normal = polygonBody.normals[contactTemplate.normalIndex];
-        Vector2D contactPoint = multiplication(normal, -circularBody.radius);
-        contactPoint.add(circularBody.position);
-        return new Contact(polygonBody, circularBody, normal, contactTemplate.depth, contactPoint);
+        return circleContact(circularBody, polygonBody, depth);
     }
 
-    private Contact polygonVSPolygonContact(BodyPair bodyPair) {
-        PolygonBody a = (PolygonBody) bodyPair.bodyA, b = (PolygonBody) bodyPair.bodyB;
-
-        ContactTemplate templateA = contactTemplate(a, b);
-        if (templateA == null) {
+    private Contact polygonVSPolygonContact(PolygonBody a, PolygonBody b) {
+        double depthA = penetration(a, b);
+        if (depthA <= 0) {
             return null;
         }
-        ContactTemplate templateB = contactTemplate(b, a);
-        if (templateB == null) {
+        int normalIndexA = normalIndex;
+        double depthB = penetration(b, a);
+        if (depthB <= 0) {
             return null;
         }
+        int normalIndexB = normalIndex;
+
+        if (depthA < depthB) {
+            return clippedContact(a, normalIndexA, b, normalIndexB, depthA);
+        }
+        return clippedContact(b, normalIndexB, a, normalIndexA, depthB);
+    }
 
-        ContactTemplate bestTemplate, worseTemplate;
-        if (templateA.hasLessDepthThan(templateB)) {
-            bestTemplate = templateA;
-            worseTemplate = templateB;
-        } else {
-            bestTemplate = templateB;
-            worseTemplate = templateA;
+    private Contact circleVSBoxContact(CircularBody circularBody, PolygonBody box) {
+        double depth = boxPenetration(box, circularBody.position.dot(box.normals[0]), circularBody.position.dot(box.normals[1]),
+                circularBody.radius, circularBody.radius);
+        if (depth <= 0) {
+            return null;
         }
+        return circleContact(circularBody, box, depth);
+    }
 
-        PolygonBody referenceBody = bestTemplate.normalConsideredBody, incidentBody = (PolygonBody) bestTemplate.other;
-        int referenceNormalIndex = bestTemplate.normalIndex, incidentNormalIndex = worseTemplate.normalIndex;
+    private Contact boxVSBoxContact(PolygonBody a, PolygonBody b) {
+        Vector2D axisA0 = a.normals[0], axisA1 = a.normals[1], axisB0 = b.normals[0], axisB1 = b.normals[1];
+        double cosine00 = Math.abs(axisA0.dot(axisB0)), cosine01 = Math.abs(axisA0.dot(axisB1));
+        double cosine10 = Math.abs(axisA1.dot(axisB0)), cosine11 = Math.abs(axisA1.dot(axisB1));
 
-        Vector2D referenceVertex0 = referenceBody.vertexLeftOfNormal(referenceNormalIndex);
-        Vector2D referenceVertex1 = referenceBody.vertexRightOfNormal(referenceNormalIndex);
-        Vector2D incidentVertex0 = incidentBody.vertexLeftOfNormal(incidentNormalIndex);
-        Vector2D incidentVertex1 = incidentBody.vertexRightOfNormal(incidentNormalIndex);
-        Vector2D referenceNormal = referenceBody.normals[referenceNormalIndex];
-        Vector2D[] contactPoints = contactPointsUsingClipping(referenceVertex0, referenceVertex1, incidentVertex0, incidentVertex1, referenceNormal);
+        double depthA = boxPenetration(a, b.boxCenterAlong(axisA0), b.boxCenterAlong(axisA1),
+                b.shape.halfExtent0 * cosine00 + b.shape.halfExtent1 * cosine01,
+                b.shape.halfExtent0 * cosine10 + b.shape.halfExtent1 * cosine11);
+        if (depthA <= 0) {
+            return null;
+        }
+        int normalIndexA = normalIndex;
+        double depthB = boxPenetration(b, a.boxCenterAlong(axisB0), a.boxCenterAlong(axisB1),
+                a.shape.halfExtent0 * cosine00 + a.shape.halfExtent1 * cosine10,
+                a.shape.halfExtent0 * cosine01 + a.shape.halfExtent1 * cosine11);
+        if (depthB <= 0) {
+            return null;
+        }
+        int normalIndexB = normalIndex;
 
-        return new Contact(referenceBody, incidentBody, referenceNormal, bestTemplate.depth, contactPoints);
+        if (depthA < depthB) {
+            return clippedContact(a, normalIndexA, b, normalIndexB, depthA);
+        }
+        return clippedContact(b, normalIndexB, a, normalIndexA, depthB);
     }
 
-    private ContactTemplate contactTemplate(PolygonBody normalConsideredBody, Body other) {
+    /**
+     * Finds the normal of a polygon along which another body penetrates it
+     * the least. The index of the normal is left in {@link #normalIndex}.
+     *
+     * @return the penetration depth, or zero if the bodies are apart
+     */
+    private double penetration(PolygonBody normalConsideredBody, Body other) {
         double depth = Double.POSITIVE_INFINITY;
-        int normalIndex = 0;
 
         for (int i = 0; i < normalConsideredBody.vertexCount; i++) {
             double edgeCoordinate = normalConsideredBody.maxCoordinateAlongNormal(i);
@@ -135,7 +339,7 @@ final class ContactReporter {
 
             double proposedDepth = edgeCoordinate - minCoordinate;
             if (proposedDepth <= 0) {
-                return null;
+                return 0;
             }
             if (proposedDepth < depth) {
                 depth = proposedDepth;
@@ -143,70 +347,101 @@ final class ContactReporter {
             }
         }
 
-        return new ContactTemplate(normalConsideredBody, other, normalIndex, depth);
+        return depth;
     }
 
-    private final class ContactTemplate {
-
-        final PolygonBody normalConsideredBody;
-        final Body other;
-        final int normalIndex;
-        final double depth;
+    /**
+     * Finds the normal of a box along which another body penetrates it the
+     * least, the same way {@link #penetration} does but in closed form. The
+     * other body is given by its center and extent along the axes of the box.
+     * The index of the normal is left in {@link #normalIndex}.
+     *
+     * @return the penetration depth, or zero if the bodies are apart
+     */
+    private double boxPenetration(PolygonBody box, double otherCenter0, double otherCenter1, double otherExtent0, double otherExtent1) {
+        double offset0 = otherCenter0 - box.boxCenterAlong(box.normals[0]);
+        double offset1 = otherCenter1 - box.boxCenterAlong(box.normals[1]);
+        double reach0 = box.shape.halfExtent0 + otherExtent0, reach1 = box.shape.halfExtent1 + otherExtent1;
+
+        boxDepths[0] = reach0 - offset0;
+        boxDepths[1] = reach1 - offset1;
+        boxDepths[2] = reach0 + offset0;
+        boxDepths[3] = reach1 + offset1;
 
-        ContactTemplate(PolygonBody normalConsideredBody, Body other, int normalIndex, double depth) {
-            this.normalConsideredBody = normalConsideredBody;
-            this.other = other;
-            this.normalIndex = normalIndex;
-            this.depth = depth;
+        double depth = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 4; i++) {
+            if (boxDepths[i] <= 0) {
+                return 0;
+            }
+            if (boxDepths[i] < depth) {
+                depth = boxDepths[i];
+                normalIndex = i;
+            }
         }
+        return depth;
+    }
 
-        boolean hasLessDepthThan(ContactTemplate other) {
-            return depth < other.depth;
-        }
+    private Contact circleContact(CircularBody circularBody, PolygonBody polygonBody, double depth) {
+        Vector2D normal = polygonBody.normals[normalIndex];
+        Contact contact = contactPool.obtain();
+        contact.set(polygonBody, circularBody, normal.x, normal.y, depth);
+        contact.addPoint(circularBody.position.x - normal.x * circularBody.radius, circularBody.position.y - normal.y * circularBody.radius);
+        return contact;
+    }
 
+    private Contact clippedContact(PolygonBody referenceBody, int referenceNormalIndex, PolygonBody incidentBody, int incidentNormalIndex, double depth) {
+        Vector2D referenceNormal = referenceBody.normals[referenceNormalIndex];
+        Contact contact = contactPool.obtain();
+        contact.set(referenceBody, incidentBody, referenceNormal.x, referenceNormal.y, depth);
+        addClippedPoints(contact,
+                referenceBody.vertexLeftOfNormal(referenceNormalIndex), referenceBody.vertexRightOfNormal(referenceNormalIndex),
+                incidentBody.vertexLeftOfNormal(incidentNormalIndex), incidentBody.vertexRightOfNormal(incidentNormalIndex),
+                referenceNormal);
+        return contact;
     }
 
-    private Vector2D[] contactPointsUsingClipping(
+    /**
+     * Clips the incident edge to the sides of the reference edge and adds
+     * the clipped end points as contact points, leaving out at most one of
+     * them if it lies outside the reference edge.
+     */
+    private void addClippedPoints(Contact contact,
             Vector2D referenceVertexA, Vector2D referenceVertexB,
             Vector2D incidentVertexA, Vector2D incidentVertexB,
             Vector2D referenceNormal) {
 
-        Vector2D invalidAreaNormal = drawing(referenceVertexA, referenceVertexB);
-        invalidAreaNormal.norm();
-        Vector2D contactPointB = constrainPoint(incidentVertexB, referenceVertexA, invalidAreaNormal, incidentVertexA);
-        invalidAreaNormal.flip();
-        Vector2D contactPointA = constrainPoint(incidentVertexA, referenceVertexB, invalidAreaNormal, incidentVertexB);
-
-        Vector2D[] contactPoints = removeOnePointAtMost(contactPointA, contactPointB, referenceVertexA, Vector2D.flip(referenceNormal));
-        return contactPoints;
-    }
-
-    private Vector2D constrainPoint(Vector2D point, Vector2D invalidAreaEdgePoint, Vector2D invalidAreaNormal, Vector2D pointToConstrainTowards) {
-        double invalidAreaEdgeCoord = invalidAreaEdgePoint.dot(invalidAreaNormal);
-        double pointCoord = point.dot(invalidAreaNormal);
-        double relativePointCoord = pointCoord - invalidAreaEdgeCoord;
-        if (relativePointCoord < 0) {
-            Vector2D constrainedPoint = drawing(point, pointToConstrainTowards);
-            constrainedPoint.mul(relativePointCoord / (relativePointCoord - pointToConstrainTowards.dot(invalidAreaNormal)));
-            constrainedPoint.add(point);
-            return constrainedPoint;
+        double tangentX = referenceVertexB.x - referenceVertexA.x, tangentY = referenceVertexB.y - referenceVertexA.y;
+        double tangentLength = Math.sqrt(tangentX * tangentX + tangentY * tangentY);
+        tangentX /= tangentLength;
+        tangentY /= tangentLength;
+        double incidentCoordinateA = incidentVertexA.x * tangentX + incidentVertexA.y * tangentY;
+        double incidentCoordinateB = incidentVertexB.x * tangentX + incidentVertexB.y * tangentY;
+
+        double pointBX = incidentVertexB.x, pointBY = incidentVertexB.y;
+        double relativeCoordinateB = incidentCoordinateB - (referenceVertexA.x * tangentX + referenceVertexA.y * tangentY);
+        if (relativeCoordinateB < 0) {
+            double fraction = relativeCoordinateB / (relativeCoordinateB - incidentCoordinateA);
+            pointBX += (incidentVertexA.x - pointBX) * fraction;
+            pointBY += (incidentVertexA.y - pointBY) * fraction;
         }
-        return point;
-    }
 
-    private Vector2D[] removeOnePointAtMost(Vector2D removablePointA, Vector2D removablePointB, Vector2D invalidAreaEdgePoint, Vector2D invalidAreaNormal) {
-        double invalidAreaEdgeCoord = invalidAreaEdgePoint.dot(invalidAreaNormal);
+        double pointAX = incidentVertexA.x, pointAY = incidentVertexA.y;
+        double relativeCoordinateA = -incidentCoordinateA + (referenceVertexB.x * tangentX + referenceVertexB.y * tangentY);
+        if (relativeCoordinateA < 0) {
+            double fraction = relativeCoordinateA / (relativeCoordinateA + incidentCoordinateB);
+            pointAX += (incidentVertexB.x - pointAX) * fraction;
+            pointAY += (incidentVertexB.y - pointAY) * fraction;
+        }
 
-        double coordA = removablePointA.dot(invalidAreaNormal);
-        if (coordA < invalidAreaEdgeCoord) {
-            return new Vector2D[]{removablePointB};
+        double edgeCoordinate = referenceVertexA.dot(referenceNormal);
+        boolean pointAIsValid = pointAX * referenceNormal.x + pointAY * referenceNormal.y <= edgeCoordinate;
+        boolean pointBIsValid = !pointAIsValid || pointBX * referenceNormal.x + pointBY * referenceNormal.y <= edgeCoordinate;
+        if (pointAIsValid) {
+            contact.addPoint(pointAX, pointAY);
         }
-        double coordB = removablePointB.dot(invalidAreaNormal);
-        if (coordB < invalidAreaEdgeCoord) {
-            return new Vector2D[]{removablePointA};
+        if (pointBIsValid) {
+            contact.addPoint(pointBX, pointBY);
         }
-
-        return new Vector2D[]{removablePointA, removablePointB};
     }
 
 }
@@ -19,13 +19,25 @@ package main;
 import body.Body;
 import java.util.ArrayList;
 import body.CircularBody;
+import body.BodyInternals;
 import body.BodyPair;
 import body.BodySeed;
 import body.CircularBodySeed;
 import body.Contact;
 import body.PolygonBody;
 import body.PolygonBodySeed;
+import convenience.Vector2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -33,42 +45,134 @@ import java.util.List;
  */
 public final class Farm {
 
-    private final ArrayList<Body> bodies;
+    private static final double DEFAULT_STATIC_CELL_SIZE = 8;
+
+    private final ArrayList<Body> bodies, movingBodies;
+    private final List<Body> unmodifiableBodies;
     private final ArrayList<BodyPair> bodyPairs;
 
+    private final Broadphase broadphase;
+    private final LevelOfDetail levelOfDetail;
     private final Integrator integrator;
     private final ContactReporter contactReporter;
     private final ContactHandler contactHandler;
 
+    private int bodyListVersion;
+    private long stepCount;
+    private StateHistory stateHistory;
+    private volatile SnapshotPublisher snapshotPublisher;
+    private StateExporter stateExporter;
+    private ContactGraph contactGraph;
+    private SensorOverlaps sensorOverlaps;
+    private ContactLog contactLog;
+    private PartitionedStepper partitionedStepper;
+
+    private final ArrayList<ParticleSystem> particleSystems;
+    private final CommandQueue commandQueue = new CommandQueue();
+    private volatile boolean isRecorded;
+
+    private SolverQuality solverQuality = new SolverQuality(1, 1, 1);
+    private final StepBudgeter stepBudgeter = new StepBudgeter();
+
+    private AdaptiveTimestep adaptiveTimestep;
+    private DoubleConsumer timestepListener;
+
     public Farm() {
+        this(DEFAULT_STATIC_CELL_SIZE);
+    }
+
+    /**
+     * Constructs a farm whose static bodies are indexed in a grid of the
+     * given cell size. The cells should be somewhat larger than the typical
+     * moving body.
+     *
+     * @param staticCellSize the side length of the grid cells
+     */
+    public Farm(double staticCellSize) {
         bodies = new ArrayList<>();
+        movingBodies = new ArrayList<>();
+        unmodifiableBodies = Collections.unmodifiableList(bodies);
+        particleSystems = new ArrayList<>();
         bodyPairs = new ArrayList<>();
 
-        integrator = new Integrator();
+        levelOfDetail = new LevelOfDetail();
+        broadphase = new Broadphase(staticCellSize, levelOfDetail);
+        integrator = new Integrator(levelOfDetail);
         contactReporter = new ContactReporter();
         contactHandler = new ContactHandler();
     }
 
     public CircularBody growCircularBody(CircularBodySeed bodySeed) {
-        CircularBody grownBody = new CircularBody(
+        CircularBody grownBody = newCircularBody(bodySeed);
+        addBody(grownBody);
+        return grownBody;
+    }
+
+    public PolygonBody growPolygonBody(PolygonBodySeed bodySeed) {
+        PolygonBody grownBody = newPolygonBody(bodySeed);
+        addBody(grownBody);
+        return grownBody;
+    }
+
+    public Body growBody(BodySeed bodySeed) {
+        Body grownBody = newBody(bodySeed);
+        addBody(grownBody);
+        return grownBody;
+    }
+
+    /**
+     * Grows a body from each of the given seeds in a single pass. This is
+     * considerably faster than growing the bodies one at a time when many
+     * bodies are grown at once, for example when a level is loaded.
+     *
+     * @param bodySeeds the seeds, each being either a
+     * {@link CircularBodySeed} or a {@link PolygonBodySeed}
+     * @return the grown bodies, in the order of their seeds
+     */
+    public List<Body> growBodies(Collection<? extends BodySeed> bodySeeds) {
+        ArrayList<Body> grownBodies = new ArrayList<>(bodySeeds.size());
+        for (BodySeed bodySeed : bodySeeds) {
+            grownBodies.add(newBody(bodySeed));
+        }
+
+        bodies.addAll(grownBodies);
+        for (Body body : grownBodies) {
+            if (!body.isStatic) {
+                movingBodies.add(body);
+            }
+        }
+        broadphase.addAll(grownBodies);
+        bodyListVersion++;
+        return grownBodies;
+    }
+
+    private Body newBody(BodySeed bodySeed) {
+        if (bodySeed instanceof CircularBodySeed) {
+            return newCircularBody((CircularBodySeed) bodySeed);
+        }
+        return newPolygonBody((PolygonBodySeed) bodySeed);
+    }
+
+    private CircularBody newCircularBody(CircularBodySeed bodySeed) {
+        CircularBody body = new CircularBody(
                 bodySeed.bodyRadius,
                 bodySeed.getBodyMass(),
                 bodySeed.getBodyMomentOfInertia(),
                 bodySeed.bodyCoefficientOfRestitution
         );
-        initializeBody(grownBody, bodySeed);
-        return grownBody;
+        initializeBody(body, bodySeed);
+        return body;
     }
 
-    public PolygonBody growPolygonBody(PolygonBodySeed bodySeed) {
-        PolygonBody grownBody = new PolygonBody(
-                bodySeed.bodyRelativeVertices,
+    private PolygonBody newPolygonBody(PolygonBodySeed bodySeed) {
+        PolygonBody body = new PolygonBody(
+                bodySeed.getBodyShape(),
                 bodySeed.getBodyMass(),
                 bodySeed.getBodyMomentOfInertia(),
                 bodySeed.bodyCoefficientOfRestitution
         );
-        initializeBody(grownBody, bodySeed);
-        return grownBody;
+        initializeBody(body, bodySeed);
+        return body;
     }
 
     private void initializeBody(Body body, BodySeed bodySeed) {
@@ -76,29 +180,713 @@ public final class Farm {
         body.setVelocity(bodySeed.bodyVelocity);
         body.setAngle(bodySeed.bodyAngle);
         body.setAngularVelocity(bodySeed.bodyAngularVelocity);
+        body.setCollisionFilter(bodySeed.bodyCollisionCategory, bodySeed.bodyCollisionMask, bodySeed.bodyCollisionGroup);
+        body.setSensor(bodySeed.bodyIsSensor);
+        body.convertRelativeShapeAttributes();
+    }
 
-        for (Body other : bodies) {
-            bodyPairs.add(new BodyPair(body, other));
-        }
+    private void addBody(Body body) {
         bodies.add(body);
+        if (!body.isStatic) {
+            movingBodies.add(body);
+        }
+        broadphase.add(body);
+        bodyListVersion++;
     }
 
     public void destroyBody(Body body) {
         bodies.remove(body);
+        if (!body.isStatic) {
+            movingBodies.remove(body);
+        }
+        broadphase.remove(body);
+        if (contactGraph != null) {
+            contactGraph.removeBody(body);
+        }
+        if (sensorOverlaps != null) {
+            sensorOverlaps.removeBody(body);
+        }
+        bodyListVersion++;
+    }
 
-        ArrayList<BodyPair> bodyPairsToRemove = new ArrayList<>();
-        for (BodyPair bodyPair : bodyPairs) {
-            if (bodyPair.contains(body)) {
-                bodyPairsToRemove.add(bodyPair);
-            }
+    /**
+     * Destroys all of the given bodies in a single pass.
+     *
+     * @param doomedBodies the bodies to destroy
+     */
+    public void destroyBodies(Collection<? extends Body> doomedBodies) {
+        Set<Body> doomedBodySet = Collections.newSetFromMap(new IdentityHashMap<>());
+        doomedBodySet.addAll(doomedBodies);
+        bodies.removeIf(doomedBodySet::contains);
+        movingBodies.removeIf(doomedBodySet::contains);
+        broadphase.removeAll(doomedBodySet);
+        if (contactGraph != null) {
+            contactGraph.removeBodies(doomedBodySet);
+        }
+        if (sensorOverlaps != null) {
+            sensorOverlaps.removeBodies(doomedBodySet);
         }
-        bodyPairs.removeAll(bodyPairsToRemove);
+        bodyListVersion++;
+    }
+
+    /**
+     * Grows a body from the given seed at the start of the next update. May
+     * be called from any thread, even while the farm is being updated. The
+     * seed must not be changed afterwards.
+     *
+     * Submitted changes are applied by the updating thread in the order they
+     * were submitted, with runs of growths and of destructions applied in
+     * single passes. Actions depending on the returned future run on the
+     * updating thread, during the update, and may change the farm directly.
+     * Changes cannot be submitted while the farm is being recorded for
+     * replay.
+     *
+     * @param bodySeed the seed
+     * @return a future completed with the grown body, or exceptionally if
+     * the seed was rejected
+     */
+    public CompletableFuture<Body> submitGrowth(BodySeed bodySeed) {
+        return commandQueue.addGrowth(bodySeed);
+    }
+
+    /**
+     * Destroys the given body at the start of the next update. May be called
+     * from any thread.
+     *
+     * @see #submitGrowth(BodySeed)
+     */
+    public void submitDestruction(Body body) {
+        commandQueue.addDestruction(body);
+    }
+
+    /**
+     * Applies the given force to the given body at the start of the next
+     * update. May be called from any thread.
+     *
+     * @see #submitGrowth(BodySeed)
+     */
+    public void submitForce(Body body, Vector2D force) {
+        Vector2D submittedForce = new Vector2D(force.x, force.y);
+        commandQueue.add(() -> body.applyForce(submittedForce));
+    }
+
+    /**
+     * Changes the velocity of the given body by the given impulse divided
+     * by its mass at the start of the next update. May be called from any
+     * thread.
+     *
+     * @see #submitGrowth(BodySeed)
+     */
+    public void submitImpulse(Body body, Vector2D impulse) {
+        Vector2D velocityChange = new Vector2D(impulse.x * body.invertedMass, impulse.y * body.invertedMass);
+        commandQueue.add(() -> body.addToVelocity(velocityChange));
+    }
+
+    /**
+     * Runs the given change, such as setting a property of a body, on the
+     * updating thread at the start of the next update. May be called from
+     * any thread.
+     *
+     * @see #submitGrowth(BodySeed)
+     */
+    public void submitChange(Runnable change) {
+        commandQueue.add(change);
+    }
+
+    /**
+     * Grows a system of particles, all being circles of the given radius.
+     * Particles collide with each other and with the bodies of the farm, but
+     * are far cheaper than circular bodies.
+     *
+     * @param radius the radius of every particle
+     * @param density the density of every particle
+     * @param coefficientOfRestitution the coefficient of restitution of every
+     * particle
+     * @return the particle system, initially without particles
+     * @throws IllegalStateException if the farm is being recorded for replay
+     */
+    public ParticleSystem growParticleSystem(double radius, double density, double coefficientOfRestitution) {
+        rejectIfRecorded();
+        ParticleSystem particleSystem = new ParticleSystem(radius, density, coefficientOfRestitution);
+        particleSystems.add(particleSystem);
+        return particleSystem;
+    }
+
+    public void destroyParticleSystem(ParticleSystem particleSystem) {
+        particleSystems.remove(particleSystem);
+    }
+
+    /**
+     * Marks the farm as being recorded for replay, or no longer recorded.
+     * A recorded farm rejects the changes a replay cannot reproduce:
+     * submitted changes, which may run any code, and particle systems,
+     * whose particles are not recorded.
+     *
+     * @param isRecorded whether the farm is being recorded
+     * @throws IllegalStateException if the farm is to be recorded but has
+     * particle systems or submitted changes that have not been applied yet
+     */
+    public void setRecorded(boolean isRecorded) {
+        if (!isRecorded) {
+            commandQueue.open();
+        } else if (!particleSystems.isEmpty()) {
+            throw new IllegalStateException("A farm with particle systems cannot be recorded");
+        } else if (!commandQueue.close()) {
+            throw new IllegalStateException("A farm with submitted changes cannot be recorded");
+        }
+        this.isRecorded = isRecorded;
+    }
+
+    private void rejectIfRecorded() {
+        if (isRecorded) {
+            throw new IllegalStateException("The farm is being recorded for replay");
+        }
+    }
+
+    /**
+     * @return an unmodifiable view of every body in the farm
+     */
+    public List<Body> getBodies() {
+        return unmodifiableBodies;
     }
 
     public void update(double seconds) {
-        integrator.integrate(bodies, seconds);
-        List<Contact> contactReport = contactReporter.report(bodyPairs);
-        contactHandler.handleContacts(contactReport);
+        advance(seconds, solverQuality);
+    }
+
+    /**
+     * Updates the farm, lowering the solver quality below the farm's solver
+     * quality if the update would otherwise be expected to take longer than
+     * the given time. The expectation is based on how long recent updates
+     * took, and the quality is lowered no further than needed, so the full
+     * quality is used again as soon as the load allows it.
+     *
+     * @param seconds the duration of the update
+     * @param budgetNanos the time the update should take at most, in
+     * nanoseconds
+     * @return the quality the update was made with, which is below the
+     * farm's solver quality in each of the counts that had to be lowered
+     */
+    public SolverQuality update(double seconds, long budgetNanos) {
+        long stepBudgetNanos = (adaptiveTimestep == null) ? budgetNanos : budgetNanos / adaptiveTimestep.expectedStepCount(seconds);
+        SolverQuality quality = stepBudgeter.choose(solverQuality, stepBudgetNanos);
+        advance(seconds, quality);
+        return quality;
+    }
+
+    private void advance(double seconds, SolverQuality quality) {
+        commandQueue.apply(this);
+        if (adaptiveTimestep == null) {
+            step(seconds, quality);
+            if (timestepListener != null) {
+                timestepListener.accept(seconds);
+            }
+        } else {
+            adaptiveTimestep.accumulate(seconds);
+            for (double step = adaptiveTimestep.nextStep(movingBodies); step > 0; step = adaptiveTimestep.nextStep(movingBodies)) {
+                step(step, quality);
+                if (partitionedStepper != null) {
+                    adaptiveTimestep.record(step, partitionedStepper.getWorstRelativeDepth(), partitionedStepper.getResidualRate());
+                } else {
+                    adaptiveTimestep.record(step, contactReporter.getWorstRelativeDepth(), contactHandler.getResidualRate());
+                }
+                if (timestepListener != null) {
+                    timestepListener.accept(step);
+                }
+            }
+        }
+        if (stateHistory != null) {
+            stateHistory.capture(movingBodies, bodyListVersion, levelOfDetail.getUpdateCount(), adaptiveTimestep);
+        }
+    }
+
+    private void step(double seconds, SolverQuality quality) {
+        long start = System.nanoTime(), resolutionNanos = 0;
+        double substepSeconds = seconds / quality.substepCount;
+        for (int substep = 0; substep < quality.substepCount; substep++) {
+            levelOfDetail.advance();
+            boolean isLastSubstep = (substep == quality.substepCount - 1);
+            ContactLog substepContactLog = isLastSubstep ? contactLog : null;
+            SensorOverlaps substepSensorOverlaps = isLastSubstep ? sensorOverlaps : null;
+            if (substepContactLog != null) {
+                substepContactLog.clear();
+            }
+            if (partitionedStepper != null) {
+                resolutionNanos += partitionedStepper.step(substepSeconds, quality.velocityIterations, quality.positionPasses,
+                        substepContactLog, substepSensorOverlaps);
+            } else {
+                integrator.integrate(movingBodies, substepSeconds);
+                broadphase.findPairs(bodyPairs);
+                levelOfDetail.promote(bodyPairs);
+                List<Contact> contactReport = contactReporter.report(bodyPairs);
+                if (substepContactLog != null) {
+                    substepContactLog.add(contactReport);
+                }
+                if (substepSensorOverlaps != null) {
+                    substepSensorOverlaps.add(contactReporter.getOverlaps());
+                }
+                long resolutionStart = System.nanoTime();
+                contactHandler.handleContacts(contactReport, quality.velocityIterations, quality.positionPasses);
+                resolutionNanos += System.nanoTime() - resolutionStart;
+            }
+        }
+        long substepsEnd = System.nanoTime();
+        stepCount++;
+
+        broadphase.invalidateQueries();
+        for (ParticleSystem particleSystem : particleSystems) {
+            particleSystem.update(seconds, this);
+        }
+
+        if (snapshotPublisher != null) {
+            snapshotPublisher.publish(bodies, stepCount);
+        }
+        if (stateExporter != null) {
+            stateExporter.write(bodies, contactLog, stepCount);
+        }
+        if (contactGraph != null) {
+            contactGraph.update(contactLog);
+        }
+        if (sensorOverlaps != null) {
+            sensorOverlaps.update();
+        }
+        broadphase.invalidateQueries();
+        stepBudgeter.record(quality, substepsEnd - start, resolutionNanos, System.nanoTime() - substepsEnd);
+        if (contactGraph != null) {
+            contactGraph.dispatch();
+        }
+        if (sensorOverlaps != null) {
+            sensorOverlaps.dispatch();
+        }
+    }
+
+    /**
+     * Steps the moving bodies that are far from every interest point less
+     * often, and by proportionally longer times. The farther a body is from
+     * the nearest interest point, the higher its tier, and a body in tier n
+     * is only moved every 2^n updates. A lagging body is caught up as soon as
+     * it comes into contact with a body that is moved, so contacts between
+     * tiers are resolved at a single point in time and bodies promoted to a
+     * lower tier carry on from where they were. The positions of lagging
+     * bodies are up to date only on the updates in which they are moved.
+     *
+     * @param tierDistances the distances from the nearest interest point
+     * beyond which bodies are moved every 2nd, 4th, 8th and so on update, in
+     * increasing order, or none to move every body in every update
+     */
+    public void setLevelOfDetailDistances(double... tierDistances) {
+        levelOfDetail.setTierDistances(tierDistances);
+        if (!levelOfDetail.isEnabled()) {
+            for (Body body : movingBodies) {
+                BodyInternals.catchUp(body);
+                BodyInternals.setLevelOfDetailTier(body, 0);
+            }
+        }
+    }
+
+    /**
+     * Adds a point, such as a player's position, near which bodies are moved
+     * in every update. The point is referenced rather than copied, so moving
+     * it moves the interest.
+     *
+     * @param point the point
+     */
+    public void addInterestPoint(Vector2D point) {
+        levelOfDetail.addInterestPoint(point);
+    }
+
+    public void removeInterestPoint(Vector2D point) {
+        levelOfDetail.removeInterestPoint(point);
+    }
+
+    /**
+     * Makes every update take as many steps as it needs, each as long as the
+     * state of the farm allows within the given bounds. A step is kept short
+     * enough that no moving body travels more than half of its bounding
+     * radius during it, and the steps grow while the farm is calm and shrink
+     * after steps with deep contacts or with contacts the solver left
+     * unresolved. Time too short for the next step is carried over to the
+     * next update, so a calm farm takes fewer steps than it is updated.
+     *
+     * @param minSeconds the shortest step
+     * @param maxSeconds the longest step
+     */
+    public void setAdaptiveTimestep(double minSeconds, double maxSeconds) {
+        adaptiveTimestep = new AdaptiveTimestep(minSeconds, maxSeconds);
+    }
+
+    /**
+     * Makes every update a single step again.
+     */
+    public void clearAdaptiveTimestep() {
+        adaptiveTimestep = null;
+    }
+
+    /**
+     * Sets a listener that is told the length of every step taken, which is
+     * mostly of use for tuning the adaptive timestep.
+     *
+     * @param timestepListener the listener, or {@code null} for none
+     */
+    public void setTimestepListener(DoubleConsumer timestepListener) {
+        this.timestepListener = timestepListener;
+    }
+
+    /**
+     * Sets how thoroughly contacts are resolved. Updates with a time budget
+     * may temporarily use a lower quality.
+     *
+     * @param solverQuality the quality
+     */
+    public void setSolverQuality(SolverQuality solverQuality) {
+        this.solverQuality = solverQuality;
+    }
+
+    /**
+     * Adds the bodies whose bounding boxes overlap the given box to the
+     * result. Moving bodies are bounded by their bounding circles and static
+     * bodies by their exact bounding boxes.
+     *
+     * @param result the list the found bodies are added to
+     */
+    public void findBodiesInArea(double minX, double minY, double maxX, double maxY, List<Body> result) {
+        broadphase.prepareQueries();
+        broadphase.query(minX, minY, maxX, maxY, result);
+    }
+
+    /**
+     * Adds the bodies containing the given point to the result.
+     *
+     * The queries use the positions the bodies had at the end of the last
+     * update, so bodies moved directly since then may be missed until the
+     * next update. They do not change the farm, and may be run concurrently
+     * with each other through {@link #runQueriesInParallel(int, IntConsumer)}.
+     * Sensors are found like any other body, and collision filters are not
+     * taken into account.
+     *
+     * @param result the list the found bodies are added to
+     */
+    public void queryPoint(Vector2D point, List<Body> result) {
+        int start = result.size(), end = start;
+        findBodiesInArea(point.x, point.y, point.x, point.y, result);
+        for (int i = start; i < result.size(); i++) {
+            if (result.get(i).containsPoint(point)) {
+                result.set(end++, result.get(i));
+            }
+        }
+        truncate(result, end);
+    }
+
+    /**
+     * Adds the bodies whose exact bounding boxes overlap the given box to the
+     * result.
+     *
+     * @see #queryPoint(Vector2D, List)
+     */
+    public void queryBox(double minX, double minY, double maxX, double maxY, List<Body> result) {
+        int start = result.size(), end = start;
+        findBodiesInArea(minX, minY, maxX, maxY, result);
+        for (int i = start; i < result.size(); i++) {
+            if (SceneQueries.overlapsBox(result.get(i), minX, minY, maxX, maxY)) {
+                result.set(end++, result.get(i));
+            }
+        }
+        truncate(result, end);
+    }
+
+    /**
+     * Adds the bodies overlapping the given circle to the result.
+     *
+     * @see #queryPoint(Vector2D, List)
+     */
+    public void queryCircle(Vector2D center, double radius, List<Body> result) {
+        int start = result.size(), end = start;
+        findBodiesInArea(center.x - radius, center.y - radius, center.x + radius, center.y + radius, result);
+        for (int i = start; i < result.size(); i++) {
+            if (SceneQueries.overlapsCircle(result.get(i), center.x, center.y, radius)) {
+                result.set(end++, result.get(i));
+            }
+        }
+        truncate(result, end);
+    }
+
+    /**
+     * Adds the bodies overlapping the given convex polygon to the result.
+     *
+     * @param vertices the vertices of the polygon, in either order
+     * @see #queryPoint(Vector2D, List)
+     */
+    public void queryPolygon(Vector2D[] vertices, List<Body> result) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Vector2D vertex : vertices) {
+            minX = Math.min(minX, vertex.x);
+            minY = Math.min(minY, vertex.y);
+            maxX = Math.max(maxX, vertex.x);
+            maxY = Math.max(maxY, vertex.y);
+        }
+        int start = result.size(), end = start;
+        findBodiesInArea(minX, minY, maxX, maxY, result);
+        for (int i = start; i < result.size(); i++) {
+            if (SceneQueries.overlapsPolygon(result.get(i), vertices)) {
+                result.set(end++, result.get(i));
+            }
+        }
+        truncate(result, end);
+    }
+
+    private static void truncate(List<Body> list, int size) {
+        while (list.size() > size) {
+            list.remove(list.size() - 1);
+        }
+    }
+
+    /**
+     * Finds the closest body hit by the given ray. Bodies containing the
+     * origin of the ray are not hit.
+     *
+     * @param direction the direction of the ray, of any non-zero length
+     * @param maxDistance the length of the ray, which may be infinite
+     * @param hit the hit to fill in
+     * @return whether a body was hit
+     * @see #queryPoint(Vector2D, List)
+     */
+    public boolean raycastClosest(Vector2D origin, Vector2D direction, double maxDistance, RaycastHit hit) {
+        double length = rayDirectionLength(direction), directionX = direction.x / length, directionY = direction.y / length;
+        findRayCandidates(origin, directionX, directionY, maxDistance, hit.candidates);
+        boolean found = false;
+        for (int i = 0; i < hit.candidates.size(); i++) {
+            if (SceneQueries.raycast(hit.candidates.get(i), origin.x, origin.y, directionX, directionY, maxDistance, hit)) {
+                maxDistance = hit.distance;
+                found = true;
+            }
+        }
+        hit.candidates.clear();
+        if (!found) {
+            hit.body = null;
+        }
+        return found;
+    }
+
+    /**
+     * Finds every body hit by the given ray, ordered by distance. Bodies
+     * containing the origin of the ray are not hit.
+     *
+     * @param direction the direction of the ray, of any non-zero length
+     * @param maxDistance the length of the ray, which may be infinite
+     * @param hits the hits to replace with the found ones
+     * @see #queryPoint(Vector2D, List)
+     */
+    public void raycastAll(Vector2D origin, Vector2D direction, double maxDistance, RaycastHits hits) {
+        double length = rayDirectionLength(direction), directionX = direction.x / length, directionY = direction.y / length;
+        hits.clear();
+        findRayCandidates(origin, directionX, directionY, maxDistance, hits.candidates);
+        for (int i = 0; i < hits.candidates.size(); i++) {
+            if (SceneQueries.raycast(hits.candidates.get(i), origin.x, origin.y, directionX, directionY, maxDistance, hits.next())) {
+                hits.commit();
+            }
+        }
+        hits.candidates.clear();
+        hits.sort();
+    }
+
+    private static double rayDirectionLength(Vector2D direction) {
+        double length = direction.mag();
+        if (!(length > 0)) {
+            throw new IllegalArgumentException("The direction of a ray must not be zero");
+        }
+        return length;
+    }
+
+    /**
+     * Finds the bodies whose bounding boxes overlap the bounding box of the
+     * ray. The box only extends along the axes the ray moves along, so that
+     * an infinite ray parallel to an axis does not multiply zero by infinity.
+     */
+    private void findRayCandidates(Vector2D origin, double directionX, double directionY, double maxDistance, ArrayList<Body> candidates) {
+        double endX = (directionX == 0) ? origin.x : origin.x + directionX * maxDistance;
+        double endY = (directionY == 0) ? origin.y : origin.y + directionY * maxDistance;
+        candidates.clear();
+        findBodiesInArea(Math.min(origin.x, endX), Math.min(origin.y, endY), Math.max(origin.x, endX), Math.max(origin.y, endY), candidates);
+    }
+
+    /**
+     * Runs the given number of queries on the threads of the common fork/join
+     * pool, passing the index of each query to the given function. The
+     * function may call the query methods of the farm, each query writing
+     * into its own result buffers, but must not change the farm.
+     *
+     * @param queryCount the number of queries
+     * @param query the function running a query
+     */
+    public void runQueriesInParallel(int queryCount, IntConsumer query) {
+        broadphase.prepareQueries();
+        IntStream.range(0, queryCount).parallel().forEach(query);
+    }
+
+    public SolverQuality getSolverQuality() {
+        return solverQuality;
+    }
+
+    /**
+     * Splits the world into vertical strips holding equally many moving
+     * bodies and steps each strip on its own worker thread. Contacts between
+     * bodies in different strips are resolved on the updating thread after
+     * the workers are done, in a fixed order, so the outcome is reproducible
+     * for a given worker count.
+     *
+     * @param workerCount the number of worker threads, or one to step
+     * everything on the updating thread
+     */
+    public void setWorkerCount(int workerCount) {
+        if (partitionedStepper != null) {
+            partitionedStepper.shutdown();
+            partitionedStepper = null;
+        }
+        if (workerCount > 1) {
+            partitionedStepper = new PartitionedStepper(broadphase, levelOfDetail, workerCount);
+        }
+    }
+
+    /**
+     * Starts capturing the state of every body at the end of each update,
+     * keeping the given number of most recent frames. The current state is
+     * captured immediately as the first frame.
+     *
+     * @param frameCapacity the number of frames to keep
+     */
+    public void keepStateHistory(int frameCapacity) {
+        stateHistory = new StateHistory(frameCapacity, movingBodies.size());
+        stateHistory.capture(movingBodies, bodyListVersion, levelOfDetail.getUpdateCount(), adaptiveTimestep);
+    }
+
+    /**
+     * Starts publishing the positions and angles of every body at the end of
+     * each step, for threads other than the updating thread to read. The
+     * current state is published immediately.
+     */
+    public void publishTransformSnapshots() {
+        if (snapshotPublisher == null) {
+            SnapshotPublisher publisher = new SnapshotPublisher();
+            publisher.publish(bodies, stepCount);
+            snapshotPublisher = publisher;
+        }
+    }
+
+    /**
+     * Starts writing the bodies and the contact points of every step into a
+     * memory-mapped ring in the given file, laid out as described by
+     * {@link StateExporter}, for other processes to read. Any previous export
+     * is stopped.
+     *
+     * @param file the file, which is created or truncated
+     * @param slotCount the number of steps kept in the ring
+     * @param bodyCapacity the number of bodies that fit in a slot
+     * @param contactPointCapacity the number of contact points that fit in a
+     * slot
+     * @throws IOException if the file could not be mapped
+     */
+    public void exportState(Path file, int slotCount, int bodyCapacity, int contactPointCapacity) throws IOException {
+        stopExportingState();
+        stateExporter = new StateExporter(file, slotCount, bodyCapacity, contactPointCapacity);
+        if (contactLog == null) {
+            contactLog = new ContactLog();
+        }
+    }
+
+    public void stopExportingState() throws IOException {
+        if (stateExporter != null) {
+            stateExporter.close();
+            stateExporter = null;
+            if (contactGraph == null) {
+                contactLog = null;
+            }
+        }
+    }
+
+    /**
+     * Starts tracking which bodies touch each other. After every step, the
+     * contacts that began, persisted and ended in it are passed to the given
+     * listener. The contacts are those found in the last substep of each
+     * step. Any previously tracked contacts are forgotten. The contacts of a
+     * destroyed body end when it is destroyed, and are passed on with the
+     * changes of the next step. Sensors never touch other bodies, so they
+     * have no contacts; their overlaps are tracked by
+     * {@link #trackSensorOverlaps(SensorListener)} instead.
+     *
+     * @param listener the listener, or {@code null} to only track the
+     * contacts
+     */
+    public void trackContacts(ContactListener listener) {
+        contactGraph = new ContactGraph(levelOfDetail, listener);
+        if (contactLog == null) {
+            contactLog = new ContactLog();
+        }
+    }
+
+    public void stopTrackingContacts() {
+        contactGraph = null;
+        if (stateExporter == null) {
+            contactLog = null;
+        }
+    }
+
+    /**
+     * Starts passing the overlaps of sensors with other bodies to the given
+     * listener. After every step, the overlaps that began and ended in it
+     * are passed on, as found in the last substep of the step. Sensors are
+     * kept out of contact resolution whether or not they are tracked.
+     */
+    public void trackSensorOverlaps(SensorListener listener) {
+        sensorOverlaps = new SensorOverlaps(levelOfDetail, listener);
+    }
+
+    public void stopTrackingSensorOverlaps() {
+        sensorOverlaps = null;
+    }
+
+    /**
+     * Adds the current contacts of the given body to the result. The
+     * contacts remain valid until they end.
+     *
+     * @param result the list the contacts are added to
+     */
+    public void findContacts(Body body, List<BodyContact> result) {
+        if (contactGraph == null) {
+            throw new IllegalStateException("Contacts are not tracked");
+        }
+        contactGraph.findContacts(body, result);
+    }
+
+    /**
+     * Acquires the most recently published transforms without blocking. May
+     * be called from any thread, once publishing has started.
+     *
+     * @return the snapshot, which must be released once it has been read
+     */
+    public TransformSnapshot acquireTransformSnapshot() {
+        SnapshotPublisher publisher = snapshotPublisher;
+        if (publisher == null) {
+            throw new IllegalStateException("No transform snapshots are published");
+        }
+        return publisher.acquire();
+    }
+
+    /**
+     * Restores the state of every body to a previously captured frame and
+     * forgets the frames captured after it. The time the adaptive timestep
+     * carried over and the length of its next step are restored too, so the
+     * farm steps on from the frame as it did when the frame was captured.
+     *
+     * @param frames the number of frames to go back, where zero is the most
+     * recently captured frame
+     */
+    public void rewind(int frames) {
+        if (stateHistory == null) {
+            throw new IllegalStateException("No state history is kept");
+        }
+        levelOfDetail.setUpdateCount(stateHistory.restore(movingBodies, bodyListVersion, frames, adaptiveTimestep));
+        broadphase.invalidateQueries();
     }
 
 }
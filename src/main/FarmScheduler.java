@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps many independent farms concurrently, each at its own rate.
+ *
+ * A single timer thread decides when each farm is due and hands the step to
+ * a bounded work-stealing pool, so idle workers take over steps queued
+ * behind busy ones. A farm never has more than one step queued or running.
+ * If it is still busy when its next step is due, that step is skipped
+ * instead of queued, so a farm that cannot keep up slows down on its own
+ * rather than taking workers from the others.
+ *
+ * @author Jonatan Larsson
+ */
+public final class FarmScheduler {
+
+    private final ForkJoinPool stepPool;
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Constructs a scheduler stepping farms on the given number of threads.
+     *
+     * @param threadCount the number of threads stepping farms
+     */
+    public FarmScheduler(int threadCount) {
+        stepPool = new ForkJoinPool(threadCount);
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "FarmScheduler timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts stepping the given farm at the given rate, using the inverted
+     * rate as the duration of every step.
+     *
+     * The farm must not be accessed by other threads while it is scheduled.
+     *
+     * @param farm the farm to step
+     * @param stepsPerSecond the rate at which the farm is stepped
+     * @return a handle through which the farm's stepping is observed and
+     * cancelled
+     */
+    public ScheduledFarm schedule(Farm farm, double stepsPerSecond) {
+        ScheduledFarm scheduledFarm = new ScheduledFarm(farm, 1 / stepsPerSecond);
+        long periodNanos = Math.round(1e9 / stepsPerSecond);
+        scheduledFarm.setTickFuture(timer.scheduleAtFixedRate(
+                () -> scheduledFarm.tick(stepPool, periodNanos), periodNanos, periodNanos, TimeUnit.NANOSECONDS));
+        return scheduledFarm;
+    }
+
+    /**
+     * Stops stepping every farm. Steps that are already running are allowed
+     * to finish.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        stepPool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return stepPool.awaitTermination(timeout, unit);
+    }
+
+}
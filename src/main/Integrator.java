@@ -25,10 +25,16 @@ import java.util.ArrayList;
  * @author Jonatan Larsson
  */
 final class Integrator {
+
+    private final LevelOfDetail levelOfDetail;
+
+    Integrator(LevelOfDetail levelOfDetail) {
+        this.levelOfDetail = levelOfDetail;
+    }
     
     void integrate(ArrayList<Body> bodies, double seconds) {
         for (Body body : bodies) {
-            body.integrate(seconds);
+            levelOfDetail.integrate(body, seconds);
         }
     }
 
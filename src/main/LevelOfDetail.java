@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.BodyInternals;
+import body.BodyPair;
+import convenience.Vector2D;
+import java.util.ArrayList;
+
+/**
+ * Decides which moving bodies are stepped in each update, stepping bodies
+ * far from every interest point less often.
+ *
+ * A body in tier n is only moved every 2^n updates. In between, it lags
+ * behind: its velocity follows the forces applied to it, but the change in
+ * position is put off until it is moved, which then makes up for all of the
+ * time it lagged. Pairs of bodies of which neither is moved are skipped, and
+ * a lagging body paired with a body that is moved is caught up and promoted
+ * to the tier of that body, so that contacts are always resolved between
+ * bodies at the same point in time. A body's tier is only reconsidered when
+ * it is moved, and is kept low enough that the body never moves farther than
+ * its bounding radius at once, so that it cannot pass through other bodies.
+ *
+ * @author Jonatan Larsson
+ */
+final class LevelOfDetail {
+
+    private final ArrayList<Vector2D> interestPoints = new ArrayList<>();
+    private double[] tierDistancesSquared = new double[0];
+    private long updateCount;
+
+    void setTierDistances(double... tierDistances) {
+        tierDistancesSquared = new double[tierDistances.length];
+        for (int i = 0; i < tierDistances.length; i++) {
+            tierDistancesSquared[i] = tierDistances[i] * tierDistances[i];
+        }
+    }
+
+    boolean isEnabled() {
+        return tierDistancesSquared.length > 0;
+    }
+
+    void addInterestPoint(Vector2D point) {
+        interestPoints.add(point);
+    }
+
+    void removeInterestPoint(Vector2D point) {
+        interestPoints.remove(point);
+    }
+
+    /**
+     * Starts a new update, in which the bodies whose tiers are due are moved.
+     */
+    void advance() {
+        updateCount++;
+    }
+
+    long getUpdateCount() {
+        return updateCount;
+    }
+
+    void setUpdateCount(long updateCount) {
+        this.updateCount = updateCount;
+    }
+
+    boolean isDue(Body body) {
+        return (updateCount & ((1L << body.getLevelOfDetailTier()) - 1)) == 0;
+    }
+
+    void integrate(Body body, double seconds) {
+        if (isDue(body)) {
+            body.integrate(seconds);
+            if (isEnabled()) {
+                BodyInternals.setLevelOfDetailTier(body, Math.min(tierAt(body.position), fastestTier(body, seconds)));
+            }
+        } else {
+            BodyInternals.lag(body, seconds);
+        }
+    }
+
+    /**
+     * Catches up and promotes the lagging bodies that are paired with bodies
+     * that are moved in this update.
+     */
+    void promote(ArrayList<BodyPair> bodyPairs) {
+        for (int i = 0, pairCount = bodyPairs.size(); i < pairCount; i++) {
+            BodyPair bodyPair = bodyPairs.get(i);
+            if (!isDue(bodyPair.bodyA)) {
+                promote(bodyPair.bodyA, bodyPair.bodyB);
+            } else if (!isDue(bodyPair.bodyB)) {
+                promote(bodyPair.bodyB, bodyPair.bodyA);
+            }
+        }
+    }
+
+    private void promote(Body laggingBody, Body movedBody) {
+        BodyInternals.catchUp(laggingBody);
+        BodyInternals.setLevelOfDetailTier(laggingBody, movedBody.getLevelOfDetailTier());
+    }
+
+    private int fastestTier(Body body, double seconds) {
+        double stepDistance = body.velocity.mag() * seconds;
+        int tier = 0;
+        while (tier < tierDistancesSquared.length && 2 * stepDistance <= body.boundingRadius) {
+            stepDistance *= 2;
+            tier++;
+        }
+        return tier;
+    }
+
+    private int tierAt(Vector2D position) {
+        double nearestDistanceSquared = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < interestPoints.size(); i++) {
+            nearestDistanceSquared = Math.min(nearestDistanceSquared, position.distSquared(interestPoints.get(i)));
+        }
+        int tier = 0;
+        while (tier < tierDistancesSquared.length && nearestDistanceSquared > tierDistancesSquared[tier]) {
+            tier++;
+        }
+        return tier;
+    }
+
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.CircularBody;
+import body.PolygonBody;
+import convenience.Vector2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A large number of small, equally sized circles, such as sand or debris,
+ * kept in primitive arrays instead of as bodies.
+ *
+ * Every step the particles are counting-sorted into a hashed grid whose cells
+ * are as wide as a particle, so that each particle only needs to be tested
+ * against the particles of its own and the eight surrounding cells. Contacts
+ * are resolved on the spot rather than reported, so no objects are created per
+ * contact. Overlapping particles are moved apart, and their velocities are
+ * then derived from how far they moved during the step, which conserves
+ * momentum between particles. A particle squeezed between others may be moved
+ * back and forth much farther than anything pushing it moved, so the derived
+ * speed is limited to the fastest speed that reached the particle through its
+ * contacts, passed on from particle to particle as the contacts are resolved.
+ * Particles also collide with the bodies of the farm near them, found through
+ * the broadphase, pushing them as much as they are pushed by them. Sensors,
+ * and bodies the collision filter of the particles rules out, are passed
+ * through. The last body each particle touched in a step then exchanges an
+ * impulse with it, making the particle bounce off it as its coefficient of
+ * restitution says and passing its momentum on to the body.
+ *
+ * Particles are addressed by index. Removing a particle moves the last
+ * particle into its index.
+ *
+ * @author Jonatan Larsson
+ */
+public final class ParticleSystem {
+
+    public final double radius, mass;
+    private final double diameter, coefficientOfRestitution;
+    private double accelerationX, accelerationY;
+    private int iterationCount = 4;
+    private int collisionCategory = 1, collisionMask = -1, collisionGroup;
+
+    private double[] x = new double[256], y = new double[256], vx = new double[256], vy = new double[256];
+    private double[] previousX = new double[256], previousY = new double[256];
+    private double[] solveVx = new double[256], solveVy = new double[256], speedLimits = new double[256];
+    private double[] contactNx = new double[256], contactNy = new double[256];
+    private Body[] contactBodies = new Body[256];
+    private int count;
+
+    private int[] particleCells = new int[256], sortedParticles = new int[256], bodyVisits = new int[256], bodyCandidates = new int[256];
+    private int[] cellStarts = new int[513];
+    private int cellMask = 511;
+    private int bodyVisit;
+    private double minX, minY, maxX, maxY;
+
+    private final int[] neighbourCells = new int[9];
+    private final ArrayList<Body> nearbyBodies = new ArrayList<>();
+
+    ParticleSystem(double radius, double density, double coefficientOfRestitution) {
+        this.radius = radius;
+        diameter = 2 * radius;
+        mass = density * Math.PI * radius * radius;
+        this.coefficientOfRestitution = coefficientOfRestitution;
+    }
+
+    public int add(double x, double y, double velocityX, double velocityY) {
+        if (count == this.x.length) {
+            int capacity = 2 * count;
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            vx = Arrays.copyOf(vx, capacity);
+            vy = Arrays.copyOf(vy, capacity);
+            previousX = new double[capacity];
+            previousY = new double[capacity];
+            solveVx = new double[capacity];
+            solveVy = new double[capacity];
+            speedLimits = new double[capacity];
+            contactNx = new double[capacity];
+            contactNy = new double[capacity];
+            contactBodies = new Body[capacity];
+            particleCells = new int[capacity];
+            sortedParticles = new int[capacity];
+            bodyVisits = new int[capacity];
+            bodyCandidates = new int[capacity];
+        }
+        this.x[count] = x;
+        this.y[count] = y;
+        vx[count] = velocityX;
+        vy[count] = velocityY;
+        return count++;
+    }
+
+    public void remove(int index) {
+        count--;
+        x[index] = x[count];
+        y[index] = y[count];
+        vx[index] = vx[count];
+        vy[index] = vy[count];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public double getVelocityX(int index) {
+        return vx[index];
+    }
+
+    public double getVelocityY(int index) {
+        return vy[index];
+    }
+
+    public void setVelocity(int index, double velocityX, double velocityY) {
+        vx[index] = velocityX;
+        vy[index] = velocityY;
+    }
+
+    /**
+     * Sets an acceleration that every particle is subject to, such as
+     * gravity.
+     *
+     * @param accelerationX the x-component of the acceleration
+     * @param accelerationY the y-component of the acceleration
+     */
+    public void setAcceleration(double accelerationX, double accelerationY) {
+        this.accelerationX = accelerationX;
+        this.accelerationY = accelerationY;
+    }
+
+    /**
+     * Sets how many times per step the contacts are resolved. Deep piles of
+     * particles need more iterations to support their own weight without
+     * sinking into themselves. The default is 4.
+     *
+     * @param iterationCount the number of iterations
+     */
+    public void setIterationCount(int iterationCount) {
+        this.iterationCount = iterationCount;
+    }
+
+    /**
+     * Sets which bodies the particles may collide with, by the same rule as
+     * {@link Body#setCollisionFilter(int, int, int)}. The particles always
+     * collide with each other.
+     *
+     * @param category the bits the particles belong to
+     * @param mask the bits the particles collide with
+     * @param group the group of the particles, or zero for none
+     */
+    public void setCollisionFilter(int category, int mask, int group) {
+        collisionCategory = category;
+        collisionMask = mask;
+        collisionGroup = group;
+    }
+
+    void update(double seconds, Farm farm) {
+        integrate(seconds);
+        sortIntoCells();
+        findNearbyBodies(farm);
+        for (int iteration = 0; iteration < iterationCount; iteration++) {
+            collideWithBodies();
+            collideParticles();
+        }
+        collideWithBodies();
+        for (int i = 0; i < count; i++) {
+            solveVx[i] = vx[i];
+            solveVy[i] = vy[i];
+            vx[i] = (x[i] - previousX[i]) / seconds;
+            vy[i] = (y[i] - previousY[i]) / seconds;
+            double speedSquared = vx[i] * vx[i] + vy[i] * vy[i];
+            if (speedSquared > speedLimits[i] * speedLimits[i]) {
+                double scale = speedLimits[i] / Math.sqrt(speedSquared);
+                vx[i] *= scale;
+                vy[i] *= scale;
+            }
+        }
+        exchangeBodyImpulses();
+        nearbyBodies.clear();
+    }
+
+    private void integrate(double seconds) {
+        double velocityChangeX = accelerationX * seconds, velocityChangeY = accelerationY * seconds;
+        for (int i = 0; i < count; i++) {
+            previousX[i] = x[i];
+            previousY[i] = y[i];
+            contactBodies[i] = null;
+            vx[i] += velocityChangeX;
+            vy[i] += velocityChangeY;
+            x[i] += vx[i] * seconds;
+            y[i] += vy[i] * seconds;
+            speedLimits[i] = Math.sqrt(vx[i] * vx[i] + vy[i] * vy[i]);
+        }
+    }
+
+    private void sortIntoCells() {
+        int tableSize = Integer.highestOneBit(Math.max(2 * count - 1, 256)) << 1;
+        if (tableSize + 1 > cellStarts.length) {
+            cellStarts = new int[tableSize + 1];
+        }
+        cellMask = tableSize - 1;
+
+        Arrays.fill(cellStarts, 0, tableSize + 1, 0);
+        for (int i = 0; i < count; i++) {
+            int cell = cell(cellCoordinate(x[i]), cellCoordinate(y[i]));
+            particleCells[i] = cell;
+            cellStarts[cell + 1]++;
+        }
+        for (int cell = 0; cell < tableSize; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        for (int i = 0; i < count; i++) {
+            sortedParticles[cellStarts[particleCells[i]]++] = i;
+        }
+        for (int cell = tableSize; cell > 0; cell--) {
+            cellStarts[cell] = cellStarts[cell - 1];
+        }
+        cellStarts[0] = 0;
+    }
+
+    private void collideParticles() {
+        double diameterSquared = diameter * diameter;
+
+        int neighbourCellCount = 0, previousCellX = 0, previousCellY = 0;
+        for (int sortedIndex = 0; sortedIndex < count; sortedIndex++) {
+            int i = sortedParticles[sortedIndex];
+            int cellX = cellCoordinate(x[i]), cellY = cellCoordinate(y[i]);
+            if (sortedIndex == 0 || cellX != previousCellX || cellY != previousCellY) {
+                neighbourCellCount = findNeighbourCells(cellX, cellY);
+                previousCellX = cellX;
+                previousCellY = cellY;
+            }
+            for (int c = 0; c < neighbourCellCount; c++) {
+                int cell = neighbourCells[c];
+                for (int s = cellStarts[cell]; s < cellStarts[cell + 1]; s++) {
+                    int j = sortedParticles[s];
+                    if (j <= i) {
+                        continue;
+                    }
+                    double dx = x[j] - x[i], dy = y[j] - y[i];
+                    double distSquared = dx * dx + dy * dy;
+                    if (distSquared >= diameterSquared) {
+                        continue;
+                    }
+
+                    double dist = Math.sqrt(distSquared);
+                    double nx = 1, ny = 0;
+                    if (dist > 0) {
+                        nx = dx / dist;
+                        ny = dy / dist;
+                    }
+
+                    double speedLimit = Math.max(speedLimits[i], speedLimits[j]);
+                    speedLimits[i] = speedLimits[j] = speedLimit;
+
+                    double halfCorrection = (diameter - dist) / 2;
+                    x[i] -= nx * halfCorrection;
+                    y[i] -= ny * halfCorrection;
+                    x[j] += nx * halfCorrection;
+                    y[j] += ny * halfCorrection;
+                }
+            }
+        }
+    }
+
+    private int findNeighbourCells(int cellX, int cellY) {
+        int neighbourCellCount = 0;
+        for (int offsetX = -1; offsetX <= 1; offsetX++) {
+            for (int offsetY = -1; offsetY <= 1; offsetY++) {
+                int cell = cell(cellX + offsetX, cellY + offsetY);
+                if (!contains(neighbourCells, neighbourCellCount, cell)) {
+                    neighbourCells[neighbourCellCount++] = cell;
+                }
+            }
+        }
+        return neighbourCellCount;
+    }
+
+    private static boolean contains(int[] values, int valueCount, int value) {
+        for (int i = 0; i < valueCount; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the bodies near the particles once per update, widening the
+     * bounds of the particles by a diameter to allow for them being moved
+     * apart during the update.
+     */
+    private void findNearbyBodies(Farm farm) {
+        if (count == 0) {
+            return;
+        }
+        minX = minY = Double.POSITIVE_INFINITY;
+        maxX = maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        minX -= diameter;
+        minY -= diameter;
+        maxX += diameter;
+        maxY += diameter;
+        farm.findBodiesInArea(minX - radius, minY - radius, maxX + radius, maxY + radius, nearbyBodies);
+        int collidingBodyCount = 0;
+        for (int b = 0; b < nearbyBodies.size(); b++) {
+            Body body = nearbyBodies.get(b);
+            if (!body.isSensor() && canCollideWith(body)) {
+                nearbyBodies.set(collidingBodyCount++, body);
+            }
+        }
+        while (nearbyBodies.size() > collidingBodyCount) {
+            nearbyBodies.remove(nearbyBodies.size() - 1);
+        }
+    }
+
+    private boolean canCollideWith(Body body) {
+        if (collisionGroup != 0 && collisionGroup == body.getCollisionGroup()) {
+            return collisionGroup > 0;
+        }
+        return (collisionCategory & body.getCollisionMask()) != 0 && (body.getCollisionCategory() & collisionMask) != 0;
+    }
+
+    private void collideWithBodies() {
+        for (int b = 0, bodyCount = nearbyBodies.size(); b < bodyCount; b++) {
+            Body body = nearbyBodies.get(b);
+            double reach = body.boundingRadius + radius;
+            double bodyMinX = Math.max(body.position.x - reach, minX), bodyMaxX = Math.min(body.position.x + reach, maxX);
+            double bodyMinY = Math.max(body.position.y - reach, minY), bodyMaxY = Math.min(body.position.y + reach, maxY);
+            if (bodyMinX > bodyMaxX || bodyMinY > bodyMaxY) {
+                continue;
+            }
+
+            int candidateCount = findBodyCandidates(bodyMinX, bodyMinY, bodyMaxX, bodyMaxY);
+            if (body instanceof CircularBody) {
+                collideWithCircle((CircularBody) body, candidateCount);
+            } else {
+                collideWithPolygon((PolygonBody) body, candidateCount);
+            }
+        }
+    }
+
+    /**
+     * Finds the particles that may touch a body within the given bounds,
+     * from the cells under the bounds or, if the bounds cover more cells
+     * than there are particles, by going through the particles directly.
+     *
+     * @return the number of candidates left in {@link #bodyCandidates}
+     */
+    private int findBodyCandidates(double minX, double minY, double maxX, double maxY) {
+        int minCellX = cellCoordinate(minX), maxCellX = cellCoordinate(maxX);
+        int minCellY = cellCoordinate(minY), maxCellY = cellCoordinate(maxY);
+        int candidateCount = 0;
+        if ((long) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > count) {
+            for (int i = 0; i < count; i++) {
+                if (x[i] >= minX && x[i] <= maxX && y[i] >= minY && y[i] <= maxY) {
+                    bodyCandidates[candidateCount++] = i;
+                }
+            }
+            return candidateCount;
+        }
+
+        bodyVisit++;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                int cell = cell(cellX, cellY);
+                for (int s = cellStarts[cell]; s < cellStarts[cell + 1]; s++) {
+                    int i = sortedParticles[s];
+                    if (bodyVisits[i] != bodyVisit) {
+                        bodyVisits[i] = bodyVisit;
+                        bodyCandidates[candidateCount++] = i;
+                    }
+                }
+            }
+        }
+        return candidateCount;
+    }
+
+    private void collideWithCircle(CircularBody body, int candidateCount) {
+        double reach = body.radius + radius;
+        for (int c = 0; c < candidateCount; c++) {
+            int i = bodyCandidates[c];
+            double dx = x[i] - body.position.x, dy = y[i] - body.position.y;
+            double distSquared = dx * dx + dy * dy;
+            if (distSquared >= reach * reach || distSquared == 0) {
+                continue;
+            }
+            double dist = Math.sqrt(distSquared);
+            resolveBodyContact(i, body, dx / dist, dy / dist, reach - dist);
+        }
+    }
+
+    private void collideWithPolygon(PolygonBody body, int candidateCount) {
+        for (int c = 0; c < candidateCount; c++) {
+            int i = bodyCandidates[c];
+            double maxSeparation = Double.NEGATIVE_INFINITY;
+            int separatingNormalIndex = -1;
+            for (int k = 0; k < body.vertexCount; k++) {
+                Vector2D normal = body.normals[k];
+                double separation = x[i] * normal.x + y[i] * normal.y - body.maxCoordinateAlongNormal(k) - radius;
+                if (separation > maxSeparation) {
+                    maxSeparation = separation;
+                    separatingNormalIndex = k;
+                }
+            }
+            if (maxSeparation < 0) {
+                Vector2D normal = body.normals[separatingNormalIndex];
+                resolveBodyContact(i, body, normal.x, normal.y, -maxSeparation);
+            }
+        }
+    }
+
+    /**
+     * Pushes a particle and a body apart along the given normal, which points
+     * from the body towards the particle, and remembers the contact for
+     * {@link #exchangeBodyImpulses()}.
+     */
+    private void resolveBodyContact(int i, Body body, double nx, double ny, double depth) {
+        double invertedBodyMass = body.isStatic ? 0 : body.invertedMass;
+        double invertedParticleMass = 1 / mass;
+
+        double particleShare = invertedParticleMass / (invertedParticleMass + invertedBodyMass);
+        x[i] += nx * depth * particleShare;
+        y[i] += ny * depth * particleShare;
+        body.position.x -= nx * depth * (1 - particleShare);
+        body.position.y -= ny * depth * (1 - particleShare);
+
+        contactBodies[i] = body;
+        contactNx[i] = nx;
+        contactNy[i] = ny;
+        double bodySpeed = body.velocity.mag() + Math.abs(body.angularVelocity) * body.boundingRadius;
+        speedLimits[i] = Math.max(speedLimits[i], bodySpeed);
+    }
+
+    /**
+     * Exchanges an impulse between each particle and the last body it
+     * touched. Moving the particle out of the body already stopped it from
+     * approaching the body, so the particle is only given the extra speed
+     * its coefficient of restitution calls for. A particle that ends up
+     * moving towards the body faster than it approached it was pushed into
+     * the body by other particles or bodies, and is left alone rather than
+     * flung back at them. The body is given the opposite
+     * of the whole change in the particle's speed along the normal.
+     */
+    private void exchangeBodyImpulses() {
+        for (int i = 0; i < count; i++) {
+            Body body = contactBodies[i];
+            if (body == null) {
+                continue;
+            }
+            double nx = contactNx[i], ny = contactNy[i];
+            double offsetX = x[i] - nx * radius - body.position.x, offsetY = y[i] - ny * radius - body.position.y;
+            double bodyPointVelocityX = body.velocity.x - body.angularVelocity * offsetY;
+            double bodyPointVelocityY = body.velocity.y + body.angularVelocity * offsetX;
+            double approachSpeed = (bodyPointVelocityX - solveVx[i]) * nx + (bodyPointVelocityY - solveVy[i]) * ny;
+            if (approachSpeed <= 0) {
+                continue;
+            }
+            double separationSpeed = (vx[i] - bodyPointVelocityX) * nx + (vy[i] - bodyPointVelocityY) * ny;
+            double bounceSpeed = Math.min(coefficientOfRestitution, body.getCoefficientOfRestitution()) * approachSpeed;
+            if (separationSpeed < -approachSpeed) {
+                continue;
+            }
+            double speedChange = Math.max(bounceSpeed - separationSpeed, 0);
+            vx[i] += nx * speedChange;
+            vy[i] += ny * speedChange;
+
+            double impulse = mass * (separationSpeed + speedChange + approachSpeed);
+            if (!body.isStatic && impulse > 0) {
+                double offsetCrossNormal = offsetX * ny - offsetY * nx;
+                body.velocity.x -= nx * impulse * body.invertedMass;
+                body.velocity.y -= ny * impulse * body.invertedMass;
+                body.angularVelocity -= offsetCrossNormal * impulse / body.momentOfInertia;
+            }
+        }
+    }
+
+    private int cellCoordinate(double coordinate) {
+        return (int) Math.floor(coordinate / diameter);
+    }
+
+    private int cell(int cellX, int cellY) {
+        int hash = cellX * 0x9E3779B1 ^ cellY * 0x85EBCA77;
+        return (hash ^ hash >>> 15) & cellMask;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.BodyPair;
+import body.Contact;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Steps the moving bodies of a farm on several worker threads by splitting
+ * the world into vertical strips, one per worker.
+ *
+ * The strips are taken from the broadphase's ordering of the moving bodies
+ * along the x-axis, each strip holding an equal share of them. Since they
+ * are recomputed every step, the strips follow the load and bodies migrate
+ * between them simply by moving. Each worker resolves the pairs lying
+ * within its own strip, which only touch its own bodies and static bodies.
+ * Pairs straddling two strips are resolved afterwards on the calling thread,
+ * in strip order, so the outcome does not depend on thread timing.
+ *
+ * @author Jonatan Larsson
+ */
+final class PartitionedStepper {
+
+    private final Broadphase broadphase;
+    private final LevelOfDetail levelOfDetail;
+    private final ExecutorService workers;
+    private final Region[] regions;
+    private final List<Callable<Void>> integrationTasks, sweepTasks, resolutionTasks;
+
+    private final ContactReporter boundaryContactReporter = new ContactReporter();
+    private final ContactHandler boundaryContactHandler = new ContactHandler();
+    private double boundaryWorstRelativeDepth, boundaryResidualRate;
+
+    PartitionedStepper(Broadphase broadphase, LevelOfDetail levelOfDetail, int regionCount) {
+        this.broadphase = broadphase;
+        this.levelOfDetail = levelOfDetail;
+        workers = Executors.newFixedThreadPool(regionCount, runnable -> {
+            Thread thread = new Thread(runnable, "Farm region worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        regions = new Region[regionCount];
+        integrationTasks = new ArrayList<>(regionCount);
+        sweepTasks = new ArrayList<>(regionCount);
+        resolutionTasks = new ArrayList<>(regionCount);
+        for (int i = 0; i < regionCount; i++) {
+            Region region = regions[i] = new Region();
+            integrationTasks.add(() -> {
+                region.integrate();
+                return null;
+            });
+            sweepTasks.add(() -> {
+                region.sweep();
+                return null;
+            });
+            resolutionTasks.add(() -> {
+                region.resolve();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * @param contactLog the log the contacts are added to, or {@code null}
+     * @param sensorOverlaps the overlaps the overlapping pairs involving
+     * sensors are added to, or {@code null}
+     * @return the time spent resolving contacts, in nanoseconds
+     */
+    long step(double seconds, int velocityIterations, int positionPasses, ContactLog contactLog, SensorOverlaps sensorOverlaps) {
+        int bodyCount = broadphase.movingBodyCount();
+        for (int i = 0; i < regions.length; i++) {
+            regions[i].start = (int) ((long) i * bodyCount / regions.length);
+            regions[i].end = (int) ((long) (i + 1) * bodyCount / regions.length);
+            regions[i].seconds = seconds;
+            regions[i].velocityIterations = velocityIterations;
+            regions[i].positionPasses = positionPasses;
+        }
+
+        invokeAll(integrationTasks);
+        broadphase.sort();
+        invokeAll(sweepTasks);
+        long resolutionStart = System.nanoTime();
+        invokeAll(resolutionTasks);
+        if (contactLog != null) {
+            for (Region region : regions) {
+                contactLog.add(region.contacts);
+            }
+        }
+        if (sensorOverlaps != null) {
+            for (Region region : regions) {
+                sensorOverlaps.add(region.contactReporter.getOverlaps());
+            }
+        }
+
+        boundaryWorstRelativeDepth = boundaryResidualRate = 0;
+        for (Region region : regions) {
+            levelOfDetail.promote(region.boundaryPairs);
+            List<Contact> boundaryContacts = boundaryContactReporter.report(region.boundaryPairs);
+            if (contactLog != null) {
+                contactLog.add(boundaryContacts);
+            }
+            if (sensorOverlaps != null) {
+                sensorOverlaps.add(boundaryContactReporter.getOverlaps());
+            }
+            boundaryContactHandler.handleContacts(boundaryContacts, velocityIterations, positionPasses);
+            boundaryWorstRelativeDepth = Math.max(boundaryWorstRelativeDepth, boundaryContactReporter.getWorstRelativeDepth());
+            boundaryResidualRate = Math.max(boundaryResidualRate, boundaryContactHandler.getResidualRate());
+        }
+        return System.nanoTime() - resolutionStart;
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : workers.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while stepping", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    double getWorstRelativeDepth() {
+        double worstRelativeDepth = boundaryWorstRelativeDepth;
+        for (Region region : regions) {
+            worstRelativeDepth = Math.max(worstRelativeDepth, region.contactReporter.getWorstRelativeDepth());
+        }
+        return worstRelativeDepth;
+    }
+
+    double getResidualRate() {
+        double residualRate = boundaryResidualRate;
+        for (Region region : regions) {
+            residualRate = Math.max(residualRate, region.contactHandler.getResidualRate());
+        }
+        return residualRate;
+    }
+
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    private final class Region {
+
+        int start, end;
+        double seconds;
+        int velocityIterations, positionPasses;
+
+        final ArrayList<BodyPair> innerPairs = new ArrayList<>(), boundaryPairs = new ArrayList<>();
+        final ContactReporter contactReporter = new ContactReporter();
+        final ContactHandler contactHandler = new ContactHandler();
+        List<Contact> contacts;
+
+        void integrate() {
+            for (int i = start; i < end; i++) {
+                levelOfDetail.integrate(broadphase.movingBodyAt(i), seconds);
+            }
+        }
+
+        void sweep() {
+            innerPairs.clear();
+            boundaryPairs.clear();
+            broadphase.sweep(start, end, innerPairs, boundaryPairs);
+        }
+
+        void resolve() {
+            levelOfDetail.promote(innerPairs);
+            contacts = contactReporter.report(innerPairs);
+            contactHandler.handleContacts(contacts, velocityIterations, positionPasses);
+        }
+
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import convenience.Vector2D;
+import java.util.ArrayList;
+
+/**
+ * Where a ray hit a body. Hits are mutable so that they can be reused from
+ * one raycast to the next.
+ *
+ * @author Jonatan Larsson
+ */
+public final class RaycastHit {
+
+    public Body body;
+    public double distance;
+    public final Vector2D point = new Vector2D(), normal = new Vector2D();
+
+    final ArrayList<Body> candidates = new ArrayList<>();
+
+    void set(Body body, double distance, double pointX, double pointY, double normalX, double normalY) {
+        this.body = body;
+        this.distance = distance;
+        point.set(pointX, pointY);
+        normal.set(normalX, normalY);
+    }
+
+    void set(RaycastHit hit) {
+        set(hit.body, hit.distance, hit.point.x, hit.point.y, hit.normal.x, hit.normal.y);
+    }
+
+}
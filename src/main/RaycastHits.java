@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The hits of a ray, ordered by distance. The hits are reused from one
+ * raycast to the next.
+ *
+ * @author Jonatan Larsson
+ */
+public final class RaycastHits {
+
+    private static final Comparator<RaycastHit> DISTANCE_ORDER = Comparator.comparingDouble(hit -> hit.distance);
+
+    private RaycastHit[] hits = new RaycastHit[0];
+    private int hitCount;
+
+    final ArrayList<Body> candidates = new ArrayList<>();
+
+    void clear() {
+        for (int i = 0; i < hitCount; i++) {
+            hits[i].body = null;
+        }
+        hitCount = 0;
+    }
+
+    /**
+     * @return the hit to fill in next, which is kept by {@link #commit()}
+     */
+    RaycastHit next() {
+        if (hitCount == hits.length) {
+            hits = Arrays.copyOf(hits, Math.max(4, 2 * hitCount));
+            for (int i = hitCount; i < hits.length; i++) {
+                hits[i] = new RaycastHit();
+            }
+        }
+        return hits[hitCount];
+    }
+
+    void commit() {
+        hitCount++;
+    }
+
+    void sort() {
+        Arrays.sort(hits, 0, hitCount, DISTANCE_ORDER);
+    }
+
+    public int getCount() {
+        return hitCount;
+    }
+
+    public RaycastHit get(int index) {
+        if (index >= hitCount) {
+            throw new IndexOutOfBoundsException("Hit " + index + " of " + hitCount);
+        }
+        return hits[index];
+    }
+
+}
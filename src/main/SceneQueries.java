@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.CircularBody;
+import body.PolygonBody;
+import convenience.Vector2D;
+
+/**
+ * Exact tests of single bodies against query shapes. Convex shapes are
+ * tested for overlap by looking for a separating axis among the edge normals
+ * of the polygons involved, and for a circle, the axis through its center and
+ * the polygon's closest vertex. The tests keep no state, so they may be run
+ * concurrently.
+ *
+ * @author Jonatan Larsson
+ */
+final class SceneQueries {
+
+    private static final Vector2D POSITIVE_X = new Vector2D(1, 0), NEGATIVE_X = new Vector2D(-1, 0);
+    private static final Vector2D POSITIVE_Y = new Vector2D(0, 1), NEGATIVE_Y = new Vector2D(0, -1);
+
+    private SceneQueries() {
+    }
+
+    static boolean overlapsBox(Body body, double minX, double minY, double maxX, double maxY) {
+        return body.minCoordinateAlong(POSITIVE_X) <= maxX && -body.minCoordinateAlong(NEGATIVE_X) >= minX
+                && body.minCoordinateAlong(POSITIVE_Y) <= maxY && -body.minCoordinateAlong(NEGATIVE_Y) >= minY;
+    }
+
+    static boolean overlapsCircle(Body body, double centerX, double centerY, double radius) {
+        if (body instanceof CircularBody) {
+            double dx = body.position.x - centerX, dy = body.position.y - centerY;
+            double radiusSum = radius + ((CircularBody) body).radius;
+            return dx * dx + dy * dy <= radiusSum * radiusSum;
+        }
+        PolygonBody polygonBody = (PolygonBody) body;
+        for (Vector2D normal : polygonBody.normals) {
+            if (separatesFromCircle(polygonBody.vertices, normal.x, normal.y, centerX, centerY, radius)) {
+                return false;
+            }
+        }
+        Vector2D closestVertex = closestVertex(polygonBody.vertices, centerX, centerY);
+        return !separatesFromCircle(polygonBody.vertices, closestVertex.x - centerX, closestVertex.y - centerY, centerX, centerY, radius);
+    }
+
+    /**
+     * @param vertices the vertices of a convex polygon, in either order
+     */
+    static boolean overlapsPolygon(Body body, Vector2D[] vertices) {
+        for (int i = 0; i < vertices.length; i++) {
+            Vector2D vertex = vertices[i], nextVertex = vertices[(i + 1) % vertices.length];
+            double axisX = nextVertex.y - vertex.y, axisY = vertex.x - nextVertex.x;
+            if (separates(vertices, body, axisX, axisY)) {
+                return false;
+            }
+        }
+        if (body instanceof CircularBody) {
+            Vector2D closestVertex = closestVertex(vertices, body.position.x, body.position.y);
+            return !separatesFromCircle(vertices, closestVertex.x - body.position.x, closestVertex.y - body.position.y,
+                    body.position.x, body.position.y, ((CircularBody) body).radius);
+        }
+        for (Vector2D normal : ((PolygonBody) body).normals) {
+            if (separates(vertices, body, normal.x, normal.y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean separates(Vector2D[] vertices, Body body, double axisX, double axisY) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (Vector2D vertex : vertices) {
+            double coordinate = vertex.x * axisX + vertex.y * axisY;
+            min = Math.min(min, coordinate);
+            max = Math.max(max, coordinate);
+        }
+        double bodyMin, bodyMax;
+        if (body instanceof CircularBody) {
+            double center = body.position.x * axisX + body.position.y * axisY;
+            double extent = ((CircularBody) body).radius * Math.sqrt(axisX * axisX + axisY * axisY);
+            bodyMin = center - extent;
+            bodyMax = center + extent;
+        } else {
+            bodyMin = Double.POSITIVE_INFINITY;
+            bodyMax = Double.NEGATIVE_INFINITY;
+            for (Vector2D vertex : ((PolygonBody) body).vertices) {
+                double coordinate = vertex.x * axisX + vertex.y * axisY;
+                bodyMin = Math.min(bodyMin, coordinate);
+                bodyMax = Math.max(bodyMax, coordinate);
+            }
+        }
+        return max < bodyMin || bodyMax < min;
+    }
+
+    private static boolean separatesFromCircle(Vector2D[] vertices, double axisX, double axisY,
+            double centerX, double centerY, double radius) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (Vector2D vertex : vertices) {
+            double coordinate = vertex.x * axisX + vertex.y * axisY;
+            min = Math.min(min, coordinate);
+            max = Math.max(max, coordinate);
+        }
+        double center = centerX * axisX + centerY * axisY;
+        double extent = radius * Math.sqrt(axisX * axisX + axisY * axisY);
+        return max < center - extent || center + extent < min;
+    }
+
+    private static Vector2D closestVertex(Vector2D[] vertices, double x, double y) {
+        Vector2D closestVertex = vertices[0];
+        double closestDistanceSquared = Double.POSITIVE_INFINITY;
+        for (Vector2D vertex : vertices) {
+            double dx = vertex.x - x, dy = vertex.y - y, distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared < closestDistanceSquared) {
+                closestVertex = vertex;
+                closestDistanceSquared = distanceSquared;
+            }
+        }
+        return closestVertex;
+    }
+
+    /**
+     * Casts a ray of unit direction against a body. Bodies containing the
+     * origin of the ray are not hit.
+     *
+     * @return whether the body was hit within the given distance, in which
+     * case the hit is filled in
+     */
+    static boolean raycast(Body body, double originX, double originY, double directionX, double directionY,
+            double maxDistance, RaycastHit hit) {
+        if (body instanceof CircularBody) {
+            double radius = ((CircularBody) body).radius;
+            double toOriginX = originX - body.position.x, toOriginY = originY - body.position.y;
+            double c = toOriginX * toOriginX + toOriginY * toOriginY - radius * radius;
+            if (c <= 0) {
+                return false;
+            }
+            double b = toOriginX * directionX + toOriginY * directionY;
+            double discriminant = b * b - c;
+            if (b >= 0 || discriminant < 0) {
+                return false;
+            }
+            double distance = -b - Math.sqrt(discriminant);
+            if (distance > maxDistance) {
+                return false;
+            }
+            double pointX = originX + distance * directionX, pointY = originY + distance * directionY;
+            hit.set(body, distance, pointX, pointY, (pointX - body.position.x) / radius, (pointY - body.position.y) / radius);
+            return true;
+        }
+
+        PolygonBody polygonBody = (PolygonBody) body;
+        double enter = 0, exit = maxDistance;
+        int enteringNormal = -1;
+        for (int i = 0; i < polygonBody.vertexCount; i++) {
+            Vector2D normal = polygonBody.normals[i], vertex = polygonBody.vertices[i];
+            double numerator = normal.x * (vertex.x - originX) + normal.y * (vertex.y - originY);
+            double denominator = normal.x * directionX + normal.y * directionY;
+            if (denominator == 0) {
+                if (numerator < 0) {
+                    return false;
+                }
+            } else if (denominator < 0) {
+                double distance = numerator / denominator;
+                if (distance > enter) {
+                    enter = distance;
+                    enteringNormal = i;
+                }
+            } else {
+                exit = Math.min(exit, numerator / denominator);
+            }
+            if (enter > exit) {
+                return false;
+            }
+        }
+        if (enteringNormal < 0) {
+            return false;
+        }
+        Vector2D normal = polygonBody.normals[enteringNormal];
+        hit.set(body, enter, originX + enter * directionX, originY + enter * directionY, normal.x, normal.y);
+        return true;
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A farm stepped by a {@link FarmScheduler}, together with statistics about
+ * its stepping. The statistics may be read from any thread.
+ *
+ * @author Jonatan Larsson
+ */
+public final class ScheduledFarm {
+
+    public final Farm farm;
+    public final double secondsPerStep;
+
+    private volatile ScheduledFuture<?> tickFuture;
+    private volatile boolean cancelRequested;
+    private final AtomicBoolean stepPending = new AtomicBoolean();
+
+    private volatile long lastStepNanos, maxStepNanos, totalStepNanos;
+    private volatile long completedStepCount, skippedStepCount, missedDeadlineCount;
+    private volatile Throwable failure;
+
+    ScheduledFarm(Farm farm, double secondsPerStep) {
+        this.farm = farm;
+        this.secondsPerStep = secondsPerStep;
+    }
+
+    /**
+     * Hands over the future of the ticks, which the scheduler only has once
+     * they are scheduled. A step failing before then cancels them here.
+     */
+    void setTickFuture(ScheduledFuture<?> tickFuture) {
+        this.tickFuture = tickFuture;
+        if (cancelRequested) {
+            tickFuture.cancel(false);
+        }
+    }
+
+    void tick(Executor stepExecutor, long periodNanos) {
+        if (!stepPending.compareAndSet(false, true)) {
+            skippedStepCount++;
+            return;
+        }
+        long deadline = System.nanoTime() + periodNanos;
+        stepExecutor.execute(() -> step(deadline));
+    }
+
+    private void step(long deadline) {
+        try {
+            long start = System.nanoTime();
+            try {
+                farm.update(secondsPerStep);
+            } catch (Throwable e) {
+                failure = e;
+                cancel();
+            }
+            long end = System.nanoTime();
+
+            long stepNanos = end - start;
+            lastStepNanos = stepNanos;
+            maxStepNanos = Math.max(maxStepNanos, stepNanos);
+            totalStepNanos += stepNanos;
+            completedStepCount++;
+            if (end > deadline) {
+                missedDeadlineCount++;
+            }
+        } finally {
+            stepPending.set(false);
+        }
+    }
+
+    /**
+     * Stops stepping the farm. A step that is already running is allowed to
+     * finish.
+     */
+    public void cancel() {
+        cancelRequested = true;
+        ScheduledFuture<?> future = tickFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    public boolean isCancelled() {
+        ScheduledFuture<?> future = tickFuture;
+        return cancelRequested || future != null && future.isCancelled();
+    }
+
+    public long getLastStepNanos() {
+        return lastStepNanos;
+    }
+
+    public long getMaxStepNanos() {
+        return maxStepNanos;
+    }
+
+    public double getAverageStepNanos() {
+        long stepCount = completedStepCount;
+        return stepCount == 0 ? 0 : (double) totalStepNanos / stepCount;
+    }
+
+    public long getCompletedStepCount() {
+        return completedStepCount;
+    }
+
+    /**
+     * @return the number of steps that were skipped because the previous
+     * step had not finished when they were due
+     */
+    public long getSkippedStepCount() {
+        return skippedStepCount;
+    }
+
+    /**
+     * @return the number of steps that finished after the next step was due
+     */
+    public long getMissedDeadlineCount() {
+        return missedDeadlineCount;
+    }
+
+    /**
+     * @return the exception or error that stopped the farm from being
+     * stepped, or {@code null} if none has been thrown
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+}
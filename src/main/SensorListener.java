@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+
+/**
+ * Receives the changes to the overlaps of sensors tracked by a farm. The
+ * changes of a step are passed on together once the step is done, first the
+ * overlaps that began and then those that ended.
+ *
+ * @author Jonatan Larsson
+ */
+public interface SensorListener {
+
+    void overlapBegan(Body sensor, Body other);
+
+    void overlapEnded(Body sensor, Body other);
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.BodyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The overlaps of sensors with other bodies, tracked from step to step the
+ * same way as the contacts of a {@link ContactGraph}, but holding nothing
+ * besides the two bodies.
+ *
+ * @author Jonatan Larsson
+ */
+final class SensorOverlaps {
+
+    private final LevelOfDetail levelOfDetail;
+    private final SensorListener listener;
+
+    private final PairTable<Overlap> pairOverlaps = new PairTable<>();
+    private final ArrayList<Overlap> overlaps = new ArrayList<>(), pool = new ArrayList<>();
+    private final ArrayList<Overlap> begun = new ArrayList<>(), ended = new ArrayList<>();
+    private long step = 1;
+
+    SensorOverlaps(LevelOfDetail levelOfDetail, SensorListener listener) {
+        this.levelOfDetail = levelOfDetail;
+        this.listener = listener;
+    }
+
+    /**
+     * Marks the given overlapping pairs as seen in the current step.
+     */
+    void add(List<BodyPair> overlappingPairs) {
+        for (int i = 0; i < overlappingPairs.size(); i++) {
+            BodyPair bodyPair = overlappingPairs.get(i);
+            long key = PairTable.key(bodyPair.bodyA, bodyPair.bodyB);
+            Overlap overlap = pairOverlaps.get(key);
+            if (overlap == null) {
+                overlap = pool.isEmpty() ? new Overlap() : pool.remove(pool.size() - 1);
+                boolean aIsSensor = bodyPair.bodyA.isSensor();
+                overlap.sensor = aIsSensor ? bodyPair.bodyA : bodyPair.bodyB;
+                overlap.other = aIsSensor ? bodyPair.bodyB : bodyPair.bodyA;
+                pairOverlaps.put(key, overlap);
+                overlaps.add(overlap);
+                begun.add(overlap);
+            }
+            overlap.lastSeenStep = step;
+        }
+    }
+
+    /**
+     * Ends the overlaps that were not seen in the current step and moves on
+     * to the next one.
+     */
+    void update() {
+        int keptCount = 0;
+        for (int i = 0; i < overlaps.size(); i++) {
+            Overlap overlap = overlaps.get(i);
+            if (overlap.lastSeenStep == step || !isMoved(overlap.sensor) && !isMoved(overlap.other)) {
+                overlaps.set(keptCount++, overlap);
+            } else {
+                end(overlap);
+            }
+        }
+        truncateOverlaps(keptCount);
+        step++;
+    }
+
+    /**
+     * Ends every overlap of the given bodies, which are being destroyed.
+     */
+    void removeBodies(Set<Body> bodies) {
+        int keptCount = 0;
+        for (int i = 0; i < overlaps.size(); i++) {
+            Overlap overlap = overlaps.get(i);
+            if (bodies.contains(overlap.sensor) || bodies.contains(overlap.other)) {
+                end(overlap);
+            } else {
+                overlaps.set(keptCount++, overlap);
+            }
+        }
+        truncateOverlaps(keptCount);
+    }
+
+    /**
+     * Ends every overlap of the given body, which is being destroyed.
+     */
+    void removeBody(Body body) {
+        int keptCount = 0;
+        for (int i = 0; i < overlaps.size(); i++) {
+            Overlap overlap = overlaps.get(i);
+            if (overlap.sensor == body || overlap.other == body) {
+                end(overlap);
+            } else {
+                overlaps.set(keptCount++, overlap);
+            }
+        }
+        truncateOverlaps(keptCount);
+    }
+
+    private void end(Overlap overlap) {
+        pairOverlaps.remove(PairTable.key(overlap.sensor, overlap.other));
+        ended.add(overlap);
+    }
+
+    private void truncateOverlaps(int size) {
+        while (overlaps.size() > size) {
+            overlaps.remove(overlaps.size() - 1);
+        }
+    }
+
+    private boolean isMoved(Body body) {
+        return !body.isStatic && levelOfDetail.isDue(body);
+    }
+
+    /**
+     * Passes the changes of the last update on to the listener, and pools
+     * the ended overlaps.
+     */
+    void dispatch() {
+        for (int i = 0; i < begun.size(); i++) {
+            Overlap overlap = begun.get(i);
+            listener.overlapBegan(overlap.sensor, overlap.other);
+        }
+        for (int i = 0; i < ended.size(); i++) {
+            Overlap overlap = ended.get(i);
+            listener.overlapEnded(overlap.sensor, overlap.other);
+            overlap.sensor = overlap.other = null;
+            pool.add(overlap);
+        }
+        begun.clear();
+        ended.clear();
+    }
+
+    private static final class Overlap {
+
+        Body sensor, other;
+        long lastSeenStep;
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import java.util.ArrayList;
+
+/**
+ * Publishes transform snapshots to other threads without locking.
+ *
+ * The updating thread captures each step into a snapshot that is neither
+ * published nor held by a reader, and then publishes it with a single
+ * volatile write. A reader marks the published snapshot as held and checks
+ * that it is still the published one before reading it, so the updating
+ * thread never picks a snapshot that is being read. Three snapshots suffice
+ * as long as readers do not hold on to old ones; otherwise more are created.
+ *
+ * @author Jonatan Larsson
+ */
+final class SnapshotPublisher {
+
+    private final ArrayList<TransformSnapshot> snapshots = new ArrayList<>();
+    private volatile TransformSnapshot published;
+
+    SnapshotPublisher() {
+        for (int i = 0; i < 3; i++) {
+            snapshots.add(new TransformSnapshot());
+        }
+    }
+
+    void publish(ArrayList<Body> bodies, long stepCount) {
+        TransformSnapshot snapshot = freeSnapshot();
+        snapshot.capture(bodies, stepCount);
+        published = snapshot;
+    }
+
+    private TransformSnapshot freeSnapshot() {
+        for (TransformSnapshot snapshot : snapshots) {
+            if (snapshot != published && snapshot.readerCount.get() == 0) {
+                return snapshot;
+            }
+        }
+        TransformSnapshot snapshot = new TransformSnapshot();
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    TransformSnapshot acquire() {
+        while (true) {
+            TransformSnapshot snapshot = published;
+            snapshot.readerCount.incrementAndGet();
+            if (snapshot == published) {
+                return snapshot;
+            }
+            snapshot.readerCount.decrementAndGet();
+        }
+    }
+
+}
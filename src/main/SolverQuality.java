@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+/**
+ * How thoroughly a farm resolves its contacts during an update.
+ *
+ * Every contact is first resolved once, applying an impulse and moving the
+ * bodies apart. Further velocity iterations apply impulses again, letting
+ * them spread through stacks and piles, and further position passes move
+ * bodies apart that earlier corrections pushed back into each other. An
+ * update may also be split into substeps, each detecting and resolving
+ * contacts anew, so that fast bodies are less likely to pass through thin
+ * ones.
+ *
+ * @author Jonatan Larsson
+ */
+public final class SolverQuality {
+
+    public final int velocityIterations, positionPasses, substepCount;
+
+    public SolverQuality(int velocityIterations, int positionPasses, int substepCount) {
+        if (velocityIterations < 1 || positionPasses < 1 || substepCount < 1) {
+            throw new IllegalArgumentException("Every count must be at least one");
+        }
+        this.velocityIterations = velocityIterations;
+        this.positionPasses = positionPasses;
+        this.substepCount = substepCount;
+    }
+
+    /**
+     * @param other the quality to compare with
+     * @return whether any of the counts of this quality is lower than the
+     * corresponding count of the other quality
+     */
+    public boolean isBelow(SolverQuality other) {
+        return velocityIterations < other.velocityIterations
+                || positionPasses < other.positionPasses
+                || substepCount < other.substepCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SolverQuality[velocityIterations=" + velocityIterations
+                + ", positionPasses=" + positionPasses + ", substepCount=" + substepCount + "]";
+    }
+
+}
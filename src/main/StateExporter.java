@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.CircularBody;
+import body.PolygonBody;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import sun.misc.Unsafe;
+
+/**
+ * Writes the bodies and contact points of every step into a memory-mapped
+ * file laid out as a fixed ring of slots, for other processes to read
+ * without copying and without blocking the farm.
+ *
+ * All values are little-endian. The file starts with a header of
+ * {@link #HEADER_SIZE} bytes holding the layout and the newest complete step,
+ * followed by the slots. Step n is written into slot n modulo the slot
+ * count. Each slot starts with a version that is odd while the slot is being
+ * written, so a reader reads the version, the slot and then the version
+ * again, and retries if the versions differ or are odd. Bodies and contact
+ * points beyond the capacities of a slot are left out.
+ *
+ * @author Jonatan Larsson
+ */
+public final class StateExporter {
+
+    public static final int MAGIC = 0x4641524d, FORMAT_VERSION = 2;
+
+    public static final int HEADER_MAGIC = 0, HEADER_FORMAT_VERSION = 4, HEADER_SLOT_COUNT = 8,
+            HEADER_SLOT_SIZE = 12, HEADER_BODY_CAPACITY = 16, HEADER_CONTACT_POINT_CAPACITY = 20,
+            HEADER_NEWEST_STEP = 24, HEADER_SIZE = 64;
+
+    public static final int SLOT_VERSION = 0, SLOT_STEP = 8, SLOT_BODY_COUNT = 16,
+            SLOT_CONTACT_POINT_COUNT = 20, SLOT_BODIES = 32;
+
+    /**
+     * A body is written as its id, shape type and shape id as ints, four
+     * bytes of padding, and its x, y, angle and radius as doubles. The shape
+     * id is the {@link body.PolygonShape#id} of a polygon and -1 for a
+     * circle, which is told apart by its radius. The radius of a polygon is
+     * its bounding radius.
+     */
+    public static final int BODY_SIZE = 48;
+
+    /**
+     * A contact point is written as the ids of the two bodies as ints
+     * followed by its x, y, normal x, normal y and depth as doubles.
+     */
+    public static final int CONTACT_POINT_SIZE = 48;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount, slotSize, bodyCapacity, contactPointCapacity, contactPointsOffset;
+
+    /**
+     * Fences the writes to the mapped buffer, since Java 8 offers no public
+     * way to order plain writes to memory that other processes read.
+     */
+    private static final Unsafe UNSAFE = findUnsafe();
+
+    StateExporter(Path file, int slotCount, int bodyCapacity, int contactPointCapacity) throws IOException {
+        if (slotCount < 2 || bodyCapacity < 0 || contactPointCapacity < 0) {
+            throw new IllegalArgumentException("At least two slots and non-negative capacities are needed");
+        }
+        this.slotCount = slotCount;
+        this.bodyCapacity = bodyCapacity;
+        this.contactPointCapacity = contactPointCapacity;
+        contactPointsOffset = SLOT_BODIES + bodyCapacity * BODY_SIZE;
+        slotSize = contactPointsOffset + contactPointCapacity * CONTACT_POINT_SIZE;
+        long fileSize = HEADER_SIZE + (long) slotCount * slotSize;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The ring would take " + fileSize + " bytes");
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(HEADER_FORMAT_VERSION, FORMAT_VERSION);
+        buffer.putInt(HEADER_SLOT_COUNT, slotCount);
+        buffer.putInt(HEADER_SLOT_SIZE, slotSize);
+        buffer.putInt(HEADER_BODY_CAPACITY, bodyCapacity);
+        buffer.putInt(HEADER_CONTACT_POINT_CAPACITY, contactPointCapacity);
+        buffer.putLong(HEADER_NEWEST_STEP, -1);
+        UNSAFE.storeFence();
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+    }
+
+    private static Unsafe findUnsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    void write(ArrayList<Body> bodies, ContactLog contactLog, long step) {
+        int slot = HEADER_SIZE + (int) (step % slotCount) * slotSize;
+        long version = buffer.getLong(slot + SLOT_VERSION);
+        buffer.putLong(slot + SLOT_VERSION, version | 1);
+        UNSAFE.storeFence();
+
+        buffer.putLong(slot + SLOT_STEP, step);
+        int bodyCount = Math.min(bodies.size(), bodyCapacity);
+        buffer.putInt(slot + SLOT_BODY_COUNT, bodyCount);
+        int position = slot + SLOT_BODIES;
+        for (int i = 0; i < bodyCount; i++) {
+            Body body = bodies.get(i);
+            buffer.putInt(position, body.id);
+            buffer.putInt(position + 4, body.shapeType);
+            if (body instanceof CircularBody) {
+                buffer.putInt(position + 8, -1);
+                buffer.putDouble(position + 40, ((CircularBody) body).radius);
+            } else {
+                buffer.putInt(position + 8, ((PolygonBody) body).shape.id);
+                buffer.putDouble(position + 40, body.boundingRadius);
+            }
+            buffer.putDouble(position + 16, body.position.x);
+            buffer.putDouble(position + 24, body.position.y);
+            buffer.putDouble(position + 32, body.angle);
+            position += BODY_SIZE;
+        }
+
+        int pointCount = 0;
+        position = slot + contactPointsOffset;
+        for (int i = 0; i < contactLog.contactCount; i++) {
+            for (int j = 0; j < contactLog.pointCounts[i] && pointCount < contactPointCapacity; j++) {
+                buffer.putInt(position, contactLog.bodiesA[i].id);
+                buffer.putInt(position + 4, contactLog.bodiesB[i].id);
+                buffer.putDouble(position + 8, contactLog.pointXs[2 * i + j]);
+                buffer.putDouble(position + 16, contactLog.pointYs[2 * i + j]);
+                buffer.putDouble(position + 24, contactLog.normalXs[i]);
+                buffer.putDouble(position + 32, contactLog.normalYs[i]);
+                buffer.putDouble(position + 40, contactLog.depths[i]);
+                position += CONTACT_POINT_SIZE;
+                pointCount++;
+            }
+        }
+        buffer.putInt(slot + SLOT_CONTACT_POINT_COUNT, pointCount);
+
+        UNSAFE.storeFence();
+        buffer.putLong(slot + SLOT_VERSION, (version | 1) + 1);
+        UNSAFE.storeFence();
+        buffer.putLong(HEADER_NEWEST_STEP, step);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.BodyInternals;
+import java.util.ArrayList;
+
+/**
+ * A ring of preallocated frames, each packing the dynamic state of every body
+ * into a single array. The level of detail tier and lag of every body and the
+ * update count of the level of detail are kept as well, so bodies lagging
+ * behind when a frame is captured lag as far behind once it is restored.
+ *
+ * Frames are captured at the end of each update rather than of each step,
+ * together with the step length and the time carried over by the
+ * {@link AdaptiveTimestep}, if any, so that a restored farm takes the same
+ * steps in its next update as it did after the frame was captured.
+ *
+ * @author Jonatan Larsson
+ */
+final class StateHistory {
+
+    private static final int VALUES_PER_BODY = 11;
+
+    private final double[][] frames;
+    private final int[] frameBodyCounts, frameBodyListVersions;
+    private final long[] frameUpdateCounts;
+    private final double[] frameTimesteps, framePendingSeconds;
+    private int newestFrameIndex = -1, storedFrameCount;
+
+    StateHistory(int frameCapacity, int expectedBodyCount) {
+        if (frameCapacity < 1) {
+            throw new IllegalArgumentException("At least one frame must be kept");
+        }
+        frames = new double[frameCapacity][expectedBodyCount * VALUES_PER_BODY];
+        frameBodyCounts = new int[frameCapacity];
+        frameBodyListVersions = new int[frameCapacity];
+        frameUpdateCounts = new long[frameCapacity];
+        frameTimesteps = new double[frameCapacity];
+        framePendingSeconds = new double[frameCapacity];
+    }
+
+    void capture(ArrayList<Body> bodies, int bodyListVersion, long levelOfDetailUpdateCount, AdaptiveTimestep adaptiveTimestep) {
+        newestFrameIndex = (newestFrameIndex + 1) % frames.length;
+        int bodyCount = bodies.size();
+        double[] frame = frames[newestFrameIndex];
+        if (frame.length < bodyCount * VALUES_PER_BODY) {
+            frame = frames[newestFrameIndex] = new double[bodyCount * VALUES_PER_BODY];
+        }
+
+        int i = 0;
+        for (int bodyIndex = 0; bodyIndex < bodyCount; bodyIndex++) {
+            Body body = bodies.get(bodyIndex);
+            frame[i++] = body.position.x;
+            frame[i++] = body.position.y;
+            frame[i++] = body.velocity.x;
+            frame[i++] = body.velocity.y;
+            frame[i++] = body.acceleration.x;
+            frame[i++] = body.acceleration.y;
+            frame[i++] = body.angle;
+            frame[i++] = body.angularVelocity;
+            frame[i++] = body.angularAcceleration;
+            frame[i++] = BodyInternals.getLagSeconds(body);
+            frame[i++] = body.getLevelOfDetailTier();
+        }
+
+        frameBodyCounts[newestFrameIndex] = bodyCount;
+        frameBodyListVersions[newestFrameIndex] = bodyListVersion;
+        frameUpdateCounts[newestFrameIndex] = levelOfDetailUpdateCount;
+        frameTimesteps[newestFrameIndex] = (adaptiveTimestep == null) ? Double.NaN : adaptiveTimestep.getTimestep();
+        framePendingSeconds[newestFrameIndex] = (adaptiveTimestep == null) ? Double.NaN : adaptiveTimestep.getPendingSeconds();
+        storedFrameCount = Math.min(storedFrameCount + 1, frames.length);
+    }
+
+    /**
+     * Restores the bodies, and the adaptive timestep if both it and the frame
+     * have one.
+     *
+     * @return the update count of the level of detail when the frame was
+     * captured
+     */
+    long restore(ArrayList<Body> bodies, int bodyListVersion, int framesBack, AdaptiveTimestep adaptiveTimestep) {
+        if (framesBack < 0 || framesBack >= storedFrameCount) {
+            throw new IllegalArgumentException("Only " + storedFrameCount + " frames are stored");
+        }
+        int frameIndex = Math.floorMod(newestFrameIndex - framesBack, frames.length);
+        if (frameBodyListVersions[frameIndex] != bodyListVersion) {
+            throw new IllegalStateException("Bodies have been grown or destroyed since the frame was captured");
+        }
+
+        double[] frame = frames[frameIndex];
+        int i = 0;
+        for (int bodyIndex = 0; bodyIndex < frameBodyCounts[frameIndex]; bodyIndex++) {
+            Body body = bodies.get(bodyIndex);
+            body.position.x = frame[i++];
+            body.position.y = frame[i++];
+            body.velocity.x = frame[i++];
+            body.velocity.y = frame[i++];
+            body.acceleration.x = frame[i++];
+            body.acceleration.y = frame[i++];
+            body.angle = frame[i++];
+            body.angularVelocity = frame[i++];
+            body.angularAcceleration = frame[i++];
+            BodyInternals.setLagSeconds(body, frame[i++]);
+            BodyInternals.setLevelOfDetailTier(body, (int) frame[i++]);
+            body.convertRelativeShapeAttributes();
+        }
+
+        if (adaptiveTimestep != null && !Double.isNaN(frameTimesteps[frameIndex])) {
+            adaptiveTimestep.restore(frameTimesteps[frameIndex], framePendingSeconds[frameIndex]);
+        }
+
+        newestFrameIndex = frameIndex;
+        storedFrameCount -= framesBack;
+        return frameUpdateCounts[frameIndex];
+    }
+
+}
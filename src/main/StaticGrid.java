@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import body.BodyPair;
+import convenience.Vector2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A uniform grid holding the static bodies. Since static bodies never move,
+ * each one is inserted into the cells overlapped by its exact bounding box
+ * once and the grid is never rebuilt.
+ *
+ * A pair of overlapping bounding boxes may share several cells. It is only
+ * reported from the cell holding the minimum corner of the overlap, which
+ * spares the queries from remembering what they have already found.
+ *
+ * @author Jonatan Larsson
+ */
+final class StaticGrid {
+
+    private static final Vector2D POSITIVE_X = new Vector2D(1, 0), NEGATIVE_X = new Vector2D(-1, 0);
+    private static final Vector2D POSITIVE_Y = new Vector2D(0, 1), NEGATIVE_Y = new Vector2D(0, -1);
+
+    private final double cellSize;
+    private final IdentityHashMap<Body, Entry> entries = new IdentityHashMap<>();
+
+    private long[] cellKeys = new long[64];
+    private Entry[][] cells = new Entry[64][];
+    private int[] cellSizes = new int[64];
+    private int usedCellCount;
+
+    StaticGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    void add(Body body) {
+        Entry entry = new Entry(body);
+        entries.put(body, entry);
+        for (int cellX = cellCoordinate(entry.minX); cellX <= cellCoordinate(entry.maxX); cellX++) {
+            for (int cellY = cellCoordinate(entry.minY); cellY <= cellCoordinate(entry.maxY); cellY++) {
+                int cellIndex = cellIndex(cellX, cellY, true);
+                if (cellSizes[cellIndex] == cells[cellIndex].length) {
+                    cells[cellIndex] = Arrays.copyOf(cells[cellIndex], 2 * cellSizes[cellIndex]);
+                }
+                cells[cellIndex][cellSizes[cellIndex]++] = entry;
+            }
+        }
+    }
+
+    void remove(Body body) {
+        Entry entry = entries.remove(body);
+        if (entry == null) {
+            return;
+        }
+        for (int cellX = cellCoordinate(entry.minX); cellX <= cellCoordinate(entry.maxX); cellX++) {
+            for (int cellY = cellCoordinate(entry.minY); cellY <= cellCoordinate(entry.maxY); cellY++) {
+                int cellIndex = cellIndex(cellX, cellY, false);
+                Entry[] cell = cells[cellIndex];
+                for (int i = 0; i < cellSizes[cellIndex]; i++) {
+                    if (cell[i] == entry) {
+                        cell[i] = cell[--cellSizes[cellIndex]];
+                        cell[cellSizes[cellIndex]] = null;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    void findPairs(Body movingBody, ArrayList<BodyPair> bodyPairs) {
+        double minX = movingBody.position.x - movingBody.boundingRadius;
+        double minY = movingBody.position.y - movingBody.boundingRadius;
+        double maxX = movingBody.position.x + movingBody.boundingRadius;
+        double maxY = movingBody.position.y + movingBody.boundingRadius;
+
+        for (int cellX = cellCoordinate(minX); cellX <= cellCoordinate(maxX); cellX++) {
+            for (int cellY = cellCoordinate(minY); cellY <= cellCoordinate(maxY); cellY++) {
+                int cellIndex = cellIndex(cellX, cellY, false);
+                if (cellIndex < 0) {
+                    continue;
+                }
+                Entry[] cell = cells[cellIndex];
+                for (int i = 0; i < cellSizes[cellIndex]; i++) {
+                    Entry entry = cell[i];
+                    if (entry.overlaps(minX, minY, maxX, maxY)
+                            && cellCoordinate(Math.max(entry.minX, minX)) == cellX
+                            && cellCoordinate(Math.max(entry.minY, minY)) == cellY
+                            && movingBody.canCollideWith(entry.body)) {
+                        bodyPairs.add(new BodyPair(movingBody, entry.body));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the static bodies whose bounding boxes overlap the given box to
+     * the result. When the box covers more cells than there are bodies, the
+     * bodies are tested directly instead.
+     */
+    void query(double minX, double minY, double maxX, double maxY, List<Body> result) {
+        int minCellX = cellCoordinate(minX), maxCellX = cellCoordinate(maxX);
+        int minCellY = cellCoordinate(minY), maxCellY = cellCoordinate(maxY);
+        if (((double) maxCellX - minCellX + 1) * ((double) maxCellY - minCellY + 1) > entries.size()) {
+            for (Entry entry : entries.values()) {
+                if (entry.overlaps(minX, minY, maxX, maxY)) {
+                    result.add(entry.body);
+                }
+            }
+            return;
+        }
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                int cellIndex = cellIndex(cellX, cellY, false);
+                if (cellIndex < 0) {
+                    continue;
+                }
+                Entry[] cell = cells[cellIndex];
+                for (int i = 0; i < cellSizes[cellIndex]; i++) {
+                    Entry entry = cell[i];
+                    if (entry.overlaps(minX, minY, maxX, maxY)
+                            && cellCoordinate(Math.max(entry.minX, minX)) == cellX
+                            && cellCoordinate(Math.max(entry.minY, minY)) == cellY) {
+                        result.add(entry.body);
+                    }
+                }
+            }
+        }
+    }
+
+    private int cellCoordinate(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private int cellIndex(int cellX, int cellY, boolean create) {
+        long key = ((long) cellX << 32) | (cellY & 0xffffffffL);
+        int mask = cellKeys.length - 1;
+        int index = hash(key) & mask;
+        while (cells[index] != null) {
+            if (cellKeys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        if (2 * (usedCellCount + 1) > cellKeys.length) {
+            growCellTable();
+            return cellIndex(cellX, cellY, true);
+        }
+        cellKeys[index] = key;
+        cells[index] = new Entry[4];
+        usedCellCount++;
+        return index;
+    }
+
+    private void growCellTable() {
+        long[] oldKeys = cellKeys;
+        Entry[][] oldCells = cells;
+        int[] oldSizes = cellSizes;
+
+        cellKeys = new long[2 * oldKeys.length];
+        cells = new Entry[2 * oldKeys.length][];
+        cellSizes = new int[2 * oldKeys.length];
+        int mask = cellKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCells[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (cells[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                cellKeys[index] = oldKeys[i];
+                cells[index] = oldCells[i];
+                cellSizes[index] = oldSizes[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static final class Entry {
+
+        final Body body;
+        final double minX, minY, maxX, maxY;
+
+        Entry(Body body) {
+            this.body = body;
+            minX = body.minCoordinateAlong(POSITIVE_X);
+            minY = body.minCoordinateAlong(POSITIVE_Y);
+            maxX = -body.minCoordinateAlong(NEGATIVE_X);
+            maxY = -body.minCoordinateAlong(NEGATIVE_Y);
+        }
+
+        boolean overlaps(double minX, double minY, double maxX, double maxY) {
+            return this.minX <= maxX && minX <= this.maxX && this.minY <= maxY && minY <= this.maxY;
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+/**
+ * Picks the solver quality of updates that have to fit a time budget.
+ *
+ * The cost of an update is modelled as a cost per substep for integration
+ * and contact detection, a cost per solver pass and substep, and a fixed
+ * cost for everything done once per update. Each of these is measured as
+ * updates run and smoothed over recent updates. The quality is lowered
+ * from the full quality only as far as the estimate requires, giving up
+ * velocity iterations first, then position passes and last substeps, so
+ * full quality returns by itself once the load drops.
+ *
+ * @author Jonatan Larsson
+ */
+final class StepBudgeter {
+
+    private static final double SMOOTHING = 0.2;
+
+    private double substepNanos, passNanos, fixedNanos;
+    private boolean hasMeasured;
+
+    SolverQuality choose(SolverQuality fullQuality, long budgetNanos) {
+        int velocityIterations = fullQuality.velocityIterations;
+        int positionPasses = fullQuality.positionPasses;
+        int substepCount = fullQuality.substepCount;
+
+        while (estimateNanos(velocityIterations, positionPasses, substepCount) > budgetNanos) {
+            if (velocityIterations > 1) {
+                velocityIterations--;
+            } else if (positionPasses > 1) {
+                positionPasses--;
+            } else if (substepCount > 1) {
+                substepCount--;
+            } else {
+                break;
+            }
+        }
+
+        if (velocityIterations == fullQuality.velocityIterations
+                && positionPasses == fullQuality.positionPasses
+                && substepCount == fullQuality.substepCount) {
+            return fullQuality;
+        }
+        return new SolverQuality(velocityIterations, positionPasses, substepCount);
+    }
+
+    private double estimateNanos(int velocityIterations, int positionPasses, int substepCount) {
+        return substepCount * (substepNanos + (velocityIterations + positionPasses) * passNanos) + fixedNanos;
+    }
+
+    /**
+     * Records what an update cost.
+     *
+     * @param quality the quality of the update
+     * @param substepsNanos the time spent on every substep together
+     * @param resolutionNanos the part of that time spent resolving contacts
+     * @param fixedNanos the time spent on the rest of the update
+     */
+    void record(SolverQuality quality, long substepsNanos, long resolutionNanos, long fixedNanos) {
+        double measuredSubstepNanos = (double) (substepsNanos - resolutionNanos) / quality.substepCount;
+        double measuredPassNanos = (double) resolutionNanos
+                / (quality.substepCount * (quality.velocityIterations + quality.positionPasses));
+
+        if (hasMeasured) {
+            substepNanos += SMOOTHING * (measuredSubstepNanos - substepNanos);
+            passNanos += SMOOTHING * (measuredPassNanos - passNanos);
+            this.fixedNanos += SMOOTHING * (fixedNanos - this.fixedNanos);
+        } else {
+            substepNanos = measuredSubstepNanos;
+            passNanos = measuredPassNanos;
+            this.fixedNanos = fixedNanos;
+            hasMeasured = true;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package main;
+
+import body.Body;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The positions and angles of every body of a farm at the end of a step,
+ * readable from any thread.
+ *
+ * A snapshot is acquired from the farm and must be released once it has
+ * been read, after which the farm may overwrite it with a later step. It
+ * never changes while it is held. The bodies are only included for
+ * identification; their own fields may change at any time.
+ *
+ * @author Jonatan Larsson
+ */
+public final class TransformSnapshot {
+
+    final AtomicInteger readerCount = new AtomicInteger();
+
+    private long stepCount;
+    private int bodyCount;
+    private Body[] bodies = new Body[0];
+    private int[] ids = new int[0];
+    private double[] xs = new double[0], ys = new double[0], angles = new double[0];
+
+    TransformSnapshot() {
+    }
+
+    void capture(ArrayList<Body> bodies, long stepCount) {
+        this.stepCount = stepCount;
+        bodyCount = bodies.size();
+        if (bodyCount > this.bodies.length) {
+            int capacity = Math.max(bodyCount, 2 * this.bodies.length);
+            this.bodies = new Body[capacity];
+            ids = new int[capacity];
+            xs = new double[capacity];
+            ys = new double[capacity];
+            angles = new double[capacity];
+        }
+        for (int i = 0; i < bodyCount; i++) {
+            Body body = bodies.get(i);
+            this.bodies[i] = body;
+            ids[i] = body.id;
+            xs[i] = body.position.x;
+            ys[i] = body.position.y;
+            angles[i] = body.angle;
+        }
+        Arrays.fill(this.bodies, bodyCount, this.bodies.length, null);
+    }
+
+    /**
+     * Lets the farm reuse the snapshot. It must not be read afterwards.
+     */
+    public void release() {
+        readerCount.decrementAndGet();
+    }
+
+    /**
+     * @return the number of steps the farm had taken when the snapshot was
+     * captured
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    public Body getBody(int index) {
+        return bodies[index];
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public double getX(int index) {
+        return xs[index];
+    }
+
+    public double getY(int index) {
+        return ys[index];
+    }
+
+    public double getAngle(int index) {
+        return angles[index];
+    }
+
+}
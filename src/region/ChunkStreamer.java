@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package region;
+
+import body.Body;
+import body.BodyCodec;
+import body.BodySeed;
+import convenience.Vector2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongConsumer;
+import main.Farm;
+
+/**
+ * Pages the parts of a farm that are far from every interest point out to
+ * disk and back in as interest points approach.
+ *
+ * The world is divided into square chunks, and every body belongs to each
+ * chunk its bounding box overlaps. When no interest point is within the
+ * unload distance of a chunk and every moving body in it is at rest, its
+ * bodies are written to an append-only store and destroyed, unless they
+ * also belong to a chunk that must stay. When an interest point comes
+ * within the load distance of any chunk a stored body belongs to, the body
+ * is read back asynchronously with the others written along with it, and
+ * they are grown in bulk on the next update. The unload distance should
+ * exceed the load distance, so that a chunk at the edge is not paged back
+ * and forth. The bodies are scanned for distant
+ * chunks whenever an interest point enters another chunk or the number of
+ * bodies changes, and otherwise every given number of updates, so that
+ * bodies coming to rest far away are paged out as well.
+ *
+ * Writes are asynchronous as well. A chunk requested before its write has
+ * completed is decoded from the buffer still held in memory.
+ *
+ * The store is never compacted, so the file grows by every unloaded chunk.
+ *
+ * @author Jonatan Larsson
+ */
+public final class ChunkStreamer implements AutoCloseable {
+
+    private final Farm farm;
+    private final AsynchronousFileChannel store;
+    private final double chunkSize, loadDistance, unloadDistance;
+    private double restingSpeedSquared = 1e-4, restingAngularSpeedSquared = 1e-4;
+    private int updatesPerScan = 60;
+
+    private final ArrayList<Vector2D> interestPoints = new ArrayList<>();
+    private final HashMap<Long, ArrayList<Segment>> storedChunks = new HashMap<>();
+    private final HashMap<Long, Integer> loadingChunks = new HashMap<>();
+    private final ConcurrentLinkedQueue<LoadedSegment> loadedSegments = new ConcurrentLinkedQueue<>();
+    private volatile IOException failure;
+
+    private long storeSize;
+    private long scannedInterestSignature;
+    private int scannedBodyCount = -1, updatesSinceScan;
+
+    public ChunkStreamer(Farm farm, Path storePath, double chunkSize, double loadDistance, double unloadDistance) throws IOException {
+        this.farm = farm;
+        this.chunkSize = chunkSize;
+        this.loadDistance = loadDistance;
+        this.unloadDistance = unloadDistance;
+        store = AsynchronousFileChannel.open(storePath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Adds a point around which chunks are kept in the farm. The point is
+     * referenced rather than copied, so moving it moves the interest.
+     *
+     * @param point the point
+     */
+    public void addInterestPoint(Vector2D point) {
+        interestPoints.add(point);
+    }
+
+    public void removeInterestPoint(Vector2D point) {
+        interestPoints.remove(point);
+    }
+
+    /**
+     * Sets the speed below which a moving body counts as being at rest, and
+     * may thereby be paged out with its chunk.
+     *
+     * @param restingSpeed the speed
+     */
+    public void setRestingSpeed(double restingSpeed) {
+        restingSpeedSquared = restingSpeed * restingSpeed;
+    }
+
+    /**
+     * Sets the angular speed below which a moving body counts as being at
+     * rest, together with its speed.
+     *
+     * @param restingAngularSpeed the angular speed, in radians per second
+     */
+    public void setRestingAngularSpeed(double restingAngularSpeed) {
+        restingAngularSpeedSquared = restingAngularSpeed * restingAngularSpeed;
+    }
+
+    /**
+     * Sets how many updates may pass between scans for distant chunks when
+     * neither the interest points nor the number of bodies change. The
+     * default is 60.
+     *
+     * @param updatesPerScan the number of updates
+     */
+    public void setScanInterval(int updatesPerScan) {
+        this.updatesPerScan = updatesPerScan;
+    }
+
+    /**
+     * Grows the bodies of chunks that have been read since the last call,
+     * pages out chunks that have become distant and starts reading chunks
+     * that have come near. Must be called on the thread updating the farm,
+     * between updates.
+     *
+     * @throws IOException if reading or writing the store has failed
+     */
+    public void update() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        growLoadedChunks();
+
+        long interestSignature = interestSignature();
+        if (interestSignature != scannedInterestSignature || farm.getBodies().size() != scannedBodyCount
+                || ++updatesSinceScan >= updatesPerScan) {
+            unloadDistantChunks();
+            scannedInterestSignature = interestSignature;
+            scannedBodyCount = farm.getBodies().size();
+            updatesSinceScan = 0;
+        }
+
+        loadNearbyChunks();
+    }
+
+    private void growLoadedChunks() {
+        ArrayList<BodySeed> seeds = new ArrayList<>();
+        for (LoadedSegment loaded = loadedSegments.poll(); loaded != null; loaded = loadedSegments.poll()) {
+            ByteBuffer data = loaded.data;
+            int bodyCount = data.getInt();
+            for (int i = 0; i < bodyCount; i++) {
+                seeds.add(BodyCodec.read(data));
+            }
+            for (long key : loaded.segment.chunkKeys) {
+                loadingChunks.merge(key, -1, (count, change) -> (count + change == 0) ? null : count + change);
+            }
+        }
+        if (!seeds.isEmpty()) {
+            farm.growBodies(seeds);
+        }
+    }
+
+    /**
+     * Finds the chunks that must stay, being near an interest point, loading
+     * or holding a moving body that is not at rest, and pages out the bodies
+     * that only belong to other chunks. They are written in groups by the
+     * chunk their centres lie in.
+     */
+    private void unloadDistantChunks() {
+        HashMap<Long, Boolean> keptChunks = new HashMap<>();
+        for (Body body : farm.getBodies()) {
+            if (!body.isStatic && !isResting(body)) {
+                forEachChunk(body, key -> keptChunks.put(key, true));
+            }
+        }
+
+        HashMap<Long, ArrayList<Body>> distantChunks = new HashMap<>();
+        for (Body body : farm.getBodies()) {
+            if (!body.isStatic && !isResting(body)) {
+                continue;
+            }
+            if (!belongsToKeptChunk(body, keptChunks)) {
+                long key = chunkKey(chunkCoordinate(body.position.x), chunkCoordinate(body.position.y));
+                distantChunks.computeIfAbsent(key, k -> new ArrayList<>()).add(body);
+            }
+        }
+
+        ArrayList<Body> doomedBodies = new ArrayList<>();
+        for (ArrayList<Body> chunkBodies : distantChunks.values()) {
+            writeChunk(chunkBodies);
+            doomedBodies.addAll(chunkBodies);
+        }
+        if (!doomedBodies.isEmpty()) {
+            farm.destroyBodies(doomedBodies);
+        }
+    }
+
+    private boolean isResting(Body body) {
+        return body.velocity.magSquared() <= restingSpeedSquared
+                && body.angularVelocity * body.angularVelocity <= restingAngularSpeedSquared;
+    }
+
+    private boolean belongsToKeptChunk(Body body, HashMap<Long, Boolean> keptChunks) {
+        int minChunkX = chunkCoordinate(body.position.x - body.boundingRadius);
+        int maxChunkX = chunkCoordinate(body.position.x + body.boundingRadius);
+        int minChunkY = chunkCoordinate(body.position.y - body.boundingRadius);
+        int maxChunkY = chunkCoordinate(body.position.y + body.boundingRadius);
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+                boolean isKept = keptChunks.computeIfAbsent(chunkKey(chunkX, chunkY),
+                        key -> loadingChunks.containsKey(key) || distanceToNearestInterestPoint(key) <= unloadDistance);
+                if (isKept) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void forEachChunk(Body body, LongConsumer action) {
+        int minChunkX = chunkCoordinate(body.position.x - body.boundingRadius);
+        int maxChunkX = chunkCoordinate(body.position.x + body.boundingRadius);
+        int minChunkY = chunkCoordinate(body.position.y - body.boundingRadius);
+        int maxChunkY = chunkCoordinate(body.position.y + body.boundingRadius);
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+                action.accept(chunkKey(chunkX, chunkY));
+            }
+        }
+    }
+
+    private void writeChunk(List<Body> bodies) {
+        HashSet<Long> chunkKeys = new HashSet<>();
+        int size = Integer.BYTES;
+        for (Body body : bodies) {
+            size += BodyCodec.encodedSize(body);
+            forEachChunk(body, chunkKeys::add);
+        }
+        ByteBuffer data = ByteBuffer.allocate(size);
+        data.putInt(bodies.size());
+        for (Body body : bodies) {
+            BodyCodec.write(body, data);
+        }
+        data.flip();
+
+        Segment segment = new Segment(storeSize, data, chunkKeys);
+        storeSize += size;
+        for (long key : segment.chunkKeys) {
+            storedChunks.computeIfAbsent(key, k -> new ArrayList<>()).add(segment);
+        }
+        ByteBuffer unwrittenData = data.duplicate();
+        store.write(unwrittenData, segment.position, unwrittenData, new CompletionHandler<Integer, ByteBuffer>() {
+            @Override
+            public void completed(Integer writtenByteCount, ByteBuffer unwrittenData) {
+                if (unwrittenData.hasRemaining()) {
+                    store.write(unwrittenData, segment.position + unwrittenData.position(), unwrittenData, this);
+                    return;
+                }
+                segment.unwrittenData = null;
+            }
+
+            @Override
+            public void failed(Throwable exception, ByteBuffer unwrittenData) {
+                failure = new IOException("Chunk could not be written", exception);
+            }
+        });
+    }
+
+    private void loadNearbyChunks() {
+        if (storedChunks.isEmpty()) {
+            return;
+        }
+        int reach = (int) Math.ceil(loadDistance / chunkSize);
+        for (Vector2D point : interestPoints) {
+            int pointChunkX = chunkCoordinate(point.x), pointChunkY = chunkCoordinate(point.y);
+            for (int chunkX = pointChunkX - reach; chunkX <= pointChunkX + reach; chunkX++) {
+                for (int chunkY = pointChunkY - reach; chunkY <= pointChunkY + reach; chunkY++) {
+                    long key = chunkKey(chunkX, chunkY);
+                    if (storedChunks.containsKey(key) && distanceToChunk(point, key) <= loadDistance) {
+                        readSegments(storedChunks.get(key));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts reading the given segments, and forgets them in every chunk
+     * they were stored for.
+     */
+    private void readSegments(ArrayList<Segment> segments) {
+        for (Segment segment : new ArrayList<>(segments)) {
+            for (long key : segment.chunkKeys) {
+                ArrayList<Segment> chunkSegments = storedChunks.get(key);
+                chunkSegments.remove(segment);
+                if (chunkSegments.isEmpty()) {
+                    storedChunks.remove(key);
+                }
+                loadingChunks.merge(key, 1, Integer::sum);
+            }
+
+            ByteBuffer unwrittenData = segment.unwrittenData;
+            if (unwrittenData != null) {
+                loadedSegments.add(new LoadedSegment(segment, unwrittenData.duplicate()));
+                continue;
+            }
+
+            ByteBuffer data = ByteBuffer.allocate(segment.length);
+            store.read(data, segment.position, data, new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer readByteCount, ByteBuffer data) {
+                    if (data.hasRemaining()) {
+                        store.read(data, segment.position + data.position(), data, this);
+                        return;
+                    }
+                    data.flip();
+                    loadedSegments.add(new LoadedSegment(segment, data));
+                }
+
+                @Override
+                public void failed(Throwable exception, ByteBuffer data) {
+                    failure = new IOException("Chunk could not be read", exception);
+                }
+            });
+        }
+    }
+
+    private long interestSignature() {
+        long signature = interestPoints.size();
+        for (Vector2D point : interestPoints) {
+            signature = 31 * signature + chunkKey(chunkCoordinate(point.x), chunkCoordinate(point.y));
+        }
+        return signature;
+    }
+
+    private double distanceToNearestInterestPoint(long key) {
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (Vector2D point : interestPoints) {
+            minDistance = Math.min(minDistance, distanceToChunk(point, key));
+        }
+        return minDistance;
+    }
+
+    private double distanceToChunk(Vector2D point, long key) {
+        double chunkMinX = (int) (key >> 32) * chunkSize, chunkMinY = (int) key * chunkSize;
+        double dx = Math.max(0, Math.max(chunkMinX - point.x, point.x - (chunkMinX + chunkSize)));
+        double dy = Math.max(0, Math.max(chunkMinY - point.y, point.y - (chunkMinY + chunkSize)));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private int chunkCoordinate(double coordinate) {
+        return (int) Math.floor(coordinate / chunkSize);
+    }
+
+    private static long chunkKey(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | (chunkY & 0xffffffffL);
+    }
+
+    public int getStoredChunkCount() {
+        return storedChunks.size();
+    }
+
+    public int getLoadingChunkCount() {
+        return loadingChunks.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    private static final class Segment {
+
+        final long position;
+        final int length;
+        final Set<Long> chunkKeys;
+        volatile ByteBuffer unwrittenData;
+
+        Segment(long position, ByteBuffer data, Set<Long> chunkKeys) {
+            this.position = position;
+            length = data.remaining();
+            this.chunkKeys = chunkKeys;
+            unwrittenData = data;
+        }
+
+    }
+
+    private static final class LoadedSegment {
+
+        final Segment segment;
+        final ByteBuffer data;
+
+        LoadedSegment(Segment segment, ByteBuffer data) {
+            this.segment = segment;
+            this.data = data;
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package region;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A link between two regions in the same process, handing copies of the
+ * messages over through queues.
+ *
+ * @author Jonatan Larsson
+ */
+public final class LoopbackLink implements RegionLink {
+
+    private final BlockingQueue<ByteBuffer> incoming, outgoing;
+
+    private LoopbackLink(BlockingQueue<ByteBuffer> incoming, BlockingQueue<ByteBuffer> outgoing) {
+        this.incoming = incoming;
+        this.outgoing = outgoing;
+    }
+
+    /**
+     * @return the two ends of a new link
+     */
+    public static LoopbackLink[] pair() {
+        BlockingQueue<ByteBuffer> aToB = new LinkedBlockingQueue<>(), bToA = new LinkedBlockingQueue<>();
+        return new LoopbackLink[]{new LoopbackLink(bToA, aToB), new LoopbackLink(aToB, bToA)};
+    }
+
+    @Override
+    public void send(ByteBuffer message) {
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message);
+        copy.flip();
+        outgoing.add(copy);
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException {
+        try {
+            return incoming.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package region;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A two-way connection between neighbouring regions, carrying one message in
+ * each direction per step.
+ *
+ * @author Jonatan Larsson
+ */
+public interface RegionLink extends Closeable {
+
+    /**
+     * Sends the remaining bytes of the given buffer as one message.
+     *
+     * @param message the message, which may be reused once this returns
+     * @throws IOException if the message could not be sent
+     */
+    void send(ByteBuffer message) throws IOException;
+
+    /**
+     * Waits for the next message from the other end.
+     *
+     * @return a buffer holding the message, valid until the next call
+     * @throws IOException if no message could be received
+     */
+    ByteBuffer receive() throws IOException;
+
+}
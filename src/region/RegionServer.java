@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package region;
+
+import body.Body;
+import body.BodyCodec;
+import body.BodySeed;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import main.Farm;
+
+/**
+ * Runs one rectangular region of a world that is sharded across processes.
+ *
+ * Every step, the region exchanges one message with each neighbour over its
+ * {@link RegionLink}. The message carries the moving bodies that have left
+ * this region for the neighbour's, which are destroyed here and grown there,
+ * and ghosts of the moving bodies lying within the ghost margin of the
+ * neighbour's region. Ghosts take part in the neighbour's next step so that
+ * bodies on either side of the border collide. Every body is sent along
+ * with its id in the sending region, so a ghost is grown once and then kept
+ * and updated in place for as long as it is sent, and contacts with it last
+ * from step to step. A ghost that crosses the border becomes the migrating
+ * body itself. All regions must be stepped in lockstep, which is checked
+ * with a step counter carried by each message.
+ *
+ * A body that has left this region for somewhere outside every neighbour,
+ * such as the far side of a corner or beyond the edge of the world, is
+ * handed to whichever of this region and its neighbours lies nearest to it.
+ * Regions that do not hold it pass it on the same way in later steps until
+ * it reaches the region it lies in, or stays with the nearest one.
+ *
+ * Static bodies are not exchanged, so static geometry near a border should
+ * be grown in every region it reaches into.
+ *
+ * @author Jonatan Larsson
+ */
+public final class RegionServer {
+
+    public final Farm farm;
+    private final double minX, minY, maxX, maxY, ghostMargin;
+
+    private final ArrayList<Neighbour> neighbours = new ArrayList<>();
+    private final Set<Body> ghosts = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ArrayList<Body> departedBodies = new ArrayList<>();
+    private final ArrayList<BodySeed> arrivingSeeds = new ArrayList<>(), arrivingGhostSeeds = new ArrayList<>();
+    private final ArrayList<Neighbour> arrivingGhostSenders = new ArrayList<>();
+    private final ArrayList<Integer> arrivingGhostIds = new ArrayList<>();
+    private long stepIndex;
+
+    private long lastStepBytesSent, lastStepBytesReceived, totalBytesSent, totalBytesReceived;
+
+    public RegionServer(Farm farm, double minX, double minY, double maxX, double maxY, double ghostMargin) {
+        this.farm = farm;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.ghostMargin = ghostMargin;
+    }
+
+    public void addNeighbour(RegionLink link, double minX, double minY, double maxX, double maxY) {
+        neighbours.add(new Neighbour(link, minX, minY, maxX, maxY));
+    }
+
+    /**
+     * Exchanges border traffic with every neighbour and then updates the farm.
+     *
+     * @param seconds the duration of the step
+     * @throws IOException if a neighbour could not be reached
+     */
+    public void step(double seconds) throws IOException {
+        sendBorderTraffic();
+        receiveBorderTraffic();
+        farm.update(seconds);
+    }
+
+    /**
+     * Sends the migrating bodies and the ghosts to every neighbour, and
+     * destroys the migrating bodies. Together with
+     * {@link #receiveBorderTraffic()} and an update of the farm, this makes
+     * up a step, split up so that several regions can be stepped on a single
+     * thread.
+     *
+     * @throws IOException if a neighbour could not be reached
+     */
+    public void sendBorderTraffic() throws IOException {
+        for (Neighbour neighbour : neighbours) {
+            neighbour.migrants.clear();
+            neighbour.ghosts.clear();
+        }
+        for (Body body : farm.getBodies()) {
+            if (body.isStatic || ghosts.contains(body)) {
+                continue;
+            }
+            double x = body.position.x, y = body.position.y;
+            if (contains(minX, minY, maxX, maxY, x, y)) {
+                for (Neighbour neighbour : neighbours) {
+                    if (contains(neighbour.minX - ghostMargin, neighbour.minY - ghostMargin,
+                            neighbour.maxX + ghostMargin, neighbour.maxY + ghostMargin, x, y)) {
+                        neighbour.ghosts.add(body);
+                    }
+                }
+            } else {
+                // A neighbour holding the body wins over this region even
+                // when the body lies on the edge they share.
+                Neighbour nearestNeighbour = null;
+                double nearestDistanceSquared = Math.max(distanceSquared(minX, minY, maxX, maxY, x, y), Double.MIN_VALUE);
+                for (Neighbour neighbour : neighbours) {
+                    double distanceSquared = distanceSquared(neighbour.minX, neighbour.minY, neighbour.maxX, neighbour.maxY, x, y);
+                    if (distanceSquared < nearestDistanceSquared) {
+                        nearestNeighbour = neighbour;
+                        nearestDistanceSquared = distanceSquared;
+                    }
+                }
+                if (nearestNeighbour != null) {
+                    nearestNeighbour.migrants.add(body);
+                }
+            }
+        }
+
+        lastStepBytesSent = 0;
+        for (Neighbour neighbour : neighbours) {
+            ByteBuffer message = neighbour.encodeMessage(stepIndex);
+            lastStepBytesSent += message.remaining();
+            neighbour.link.send(message);
+            departedBodies.addAll(neighbour.migrants);
+        }
+        if (!departedBodies.isEmpty()) {
+            farm.destroyBodies(departedBodies);
+            departedBodies.clear();
+        }
+        totalBytesSent += lastStepBytesSent;
+    }
+
+    /**
+     * Waits for the message of every neighbour, updates the ghosts it still
+     * carries, destroys those it no longer carries and grows the new
+     * migrating bodies and ghosts in a single pass.
+     *
+     * @throws IOException if a neighbour could not be reached
+     */
+    public void receiveBorderTraffic() throws IOException {
+        lastStepBytesReceived = 0;
+        for (Neighbour neighbour : neighbours) {
+            ByteBuffer message = neighbour.link.receive();
+            lastStepBytesReceived += message.remaining();
+
+            long neighbourStepIndex = message.getLong();
+            if (neighbourStepIndex != stepIndex) {
+                throw new IllegalStateException("Neighbour is at step " + neighbourStepIndex + " instead of " + stepIndex);
+            }
+            int migrantCount = message.getInt();
+            int ghostCount = message.getInt();
+            for (int i = 0; i < migrantCount; i++) {
+                Body ghost = neighbour.receivedGhosts.remove(message.getInt());
+                if (ghost != null) {
+                    ghosts.remove(ghost);
+                    BodyCodec.readState(message, ghost);
+                } else {
+                    arrivingSeeds.add(BodyCodec.read(message));
+                }
+            }
+            for (int i = 0; i < ghostCount; i++) {
+                int id = message.getInt();
+                Body ghost = neighbour.receivedGhosts.remove(id);
+                if (ghost != null) {
+                    BodyCodec.readState(message, ghost);
+                    neighbour.keptGhosts.put(id, ghost);
+                } else {
+                    arrivingGhostSeeds.add(BodyCodec.read(message));
+                    arrivingGhostSenders.add(neighbour);
+                    arrivingGhostIds.add(id);
+                }
+            }
+            for (Body ghost : neighbour.receivedGhosts.values()) {
+                ghosts.remove(ghost);
+                departedBodies.add(ghost);
+            }
+            neighbour.keepGhosts();
+        }
+        totalBytesReceived += lastStepBytesReceived;
+
+        if (!departedBodies.isEmpty()) {
+            farm.destroyBodies(departedBodies);
+            departedBodies.clear();
+        }
+        arrivingSeeds.addAll(arrivingGhostSeeds);
+        if (!arrivingSeeds.isEmpty()) {
+            List<Body> arrivedBodies = farm.growBodies(arrivingSeeds);
+            int firstGhostIndex = arrivedBodies.size() - arrivingGhostIds.size();
+            for (int i = 0; i < arrivingGhostIds.size(); i++) {
+                Body ghost = arrivedBodies.get(firstGhostIndex + i);
+                arrivingGhostSenders.get(i).receivedGhosts.put(arrivingGhostIds.get(i), ghost);
+                ghosts.add(ghost);
+            }
+            arrivingSeeds.clear();
+            arrivingGhostSeeds.clear();
+            arrivingGhostSenders.clear();
+            arrivingGhostIds.clear();
+        }
+        stepIndex++;
+    }
+
+    private static boolean contains(double minX, double minY, double maxX, double maxY, double x, double y) {
+        return x >= minX && x < maxX && y >= minY && y < maxY;
+    }
+
+    /**
+     * @return the squared distance from the given point to the given
+     * rectangle, which is zero if the rectangle contains the point
+     */
+    private static double distanceSquared(double minX, double minY, double maxX, double maxY, double x, double y) {
+        if (contains(minX, minY, maxX, maxY, x, y)) {
+            return 0;
+        }
+        double dx = Math.max(Math.max(minX - x, x - maxX), 0), dy = Math.max(Math.max(minY - y, y - maxY), 0);
+        return dx * dx + dy * dy;
+    }
+
+    public long getStepIndex() {
+        return stepIndex;
+    }
+
+    public int getGhostCount() {
+        return ghosts.size();
+    }
+
+    public long getLastStepBytesSent() {
+        return lastStepBytesSent;
+    }
+
+    public long getLastStepBytesReceived() {
+        return lastStepBytesReceived;
+    }
+
+    public long getTotalBytesSent() {
+        return totalBytesSent;
+    }
+
+    public long getTotalBytesReceived() {
+        return totalBytesReceived;
+    }
+
+    private static final class Neighbour {
+
+        final RegionLink link;
+        final double minX, minY, maxX, maxY;
+        final ArrayList<Body> migrants = new ArrayList<>(), ghosts = new ArrayList<>();
+        ByteBuffer messageBuffer = ByteBuffer.allocate(1 << 12);
+        /**
+         * The ghosts received from the neighbour by their ids there, and
+         * those found again in the message being read.
+         */
+        HashMap<Integer, Body> receivedGhosts = new HashMap<>(), keptGhosts = new HashMap<>();
+
+        Neighbour(RegionLink link, double minX, double minY, double maxX, double maxY) {
+            this.link = link;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        /**
+         * Keeps the ghosts found again in the message that has been read,
+         * after the others have been destroyed.
+         */
+        void keepGhosts() {
+            HashMap<Integer, Body> destroyedGhosts = receivedGhosts;
+            destroyedGhosts.clear();
+            receivedGhosts = keptGhosts;
+            keptGhosts = destroyedGhosts;
+        }
+
+        ByteBuffer encodeMessage(long stepIndex) {
+            int size = Long.BYTES + 2 * Integer.BYTES + Integer.BYTES * (migrants.size() + ghosts.size());
+            for (Body body : migrants) {
+                size += BodyCodec.encodedSize(body);
+            }
+            for (Body body : ghosts) {
+                size += BodyCodec.encodedSize(body);
+            }
+            if (messageBuffer.capacity() < size) {
+                messageBuffer = ByteBuffer.allocate(Math.max(size, 2 * messageBuffer.capacity()));
+            }
+
+            messageBuffer.clear();
+            messageBuffer.putLong(stepIndex);
+            messageBuffer.putInt(migrants.size());
+            messageBuffer.putInt(ghosts.size());
+            for (Body body : migrants) {
+                messageBuffer.putInt(body.id);
+                BodyCodec.write(body, messageBuffer);
+            }
+            for (Body body : ghosts) {
+                messageBuffer.putInt(body.id);
+                BodyCodec.write(body, messageBuffer);
+            }
+            messageBuffer.flip();
+            return messageBuffer;
+        }
+
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package region;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A link between two regions over a plain blocking socket. Every message is
+ * preceded by its length.
+ *
+ * A reader thread takes the messages off the socket as soon as they arrive
+ * and queues them for {@link #receive()}. Sending may block until the other
+ * end has read enough of the message, so without it, two regions sending
+ * each other messages larger than the socket buffers would both block in
+ * {@link #send(ByteBuffer)} and never get to reading. Whatever stops the
+ * reader thread, including a length that is negative or larger than
+ * {@link #MAX_MESSAGE_SIZE}, is passed on to the next call of
+ * {@link #receive()}.
+ *
+ * @author Jonatan Larsson
+ */
+public final class SocketLink implements RegionLink {
+
+    /**
+     * The size in bytes of the largest message that is accepted.
+     */
+    public static final int MAX_MESSAGE_SIZE = 1 << 28;
+
+    private static final ByteBuffer FAILED = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+    private final BlockingQueue<ByteBuffer> incoming = new LinkedBlockingQueue<>();
+    private volatile Throwable readFailure;
+
+    public SocketLink(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(true);
+        channel.socket().setTcpNoDelay(true);
+        Thread reader = new Thread(this::readMessages, "SocketLink reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static SocketLink connect(SocketAddress address) throws IOException {
+        return new SocketLink(SocketChannel.open(address));
+    }
+
+    public static SocketLink accept(ServerSocketChannel serverChannel) throws IOException {
+        return new SocketLink(serverChannel.accept());
+    }
+
+    @Override
+    public void send(ByteBuffer message) throws IOException {
+        if (message.remaining() > MAX_MESSAGE_SIZE) {
+            throw new IOException("Message of " + message.remaining() + " bytes is too large");
+        }
+        lengthBuffer.clear();
+        lengthBuffer.putInt(message.remaining());
+        lengthBuffer.flip();
+        ByteBuffer[] parts = {lengthBuffer, message};
+        do {
+            channel.write(parts);
+        } while (lengthBuffer.hasRemaining() || message.hasRemaining());
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException {
+        ByteBuffer message;
+        try {
+            message = incoming.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message");
+        }
+        if (message == FAILED) {
+            incoming.add(FAILED);
+            throw new IOException("The link failed", readFailure);
+        }
+        return message;
+    }
+
+    private void readMessages() {
+        ByteBuffer readerLengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        try {
+            while (true) {
+                readerLengthBuffer.clear();
+                readFully(readerLengthBuffer);
+                int length = readerLengthBuffer.getInt(0);
+                if (length < 0 || length > MAX_MESSAGE_SIZE) {
+                    throw new IOException("Message of invalid length " + length);
+                }
+                ByteBuffer message = ByteBuffer.allocate(length);
+                readFully(message);
+                message.flip();
+                incoming.add(message);
+            }
+        } catch (Throwable e) {
+            readFailure = e;
+            incoming.add(FAILED);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The other region closed the link");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
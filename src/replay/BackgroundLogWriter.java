@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Appends to a file on a background thread. Records are gathered in batches
+ * of a fixed size, and a full batch is handed to the writing thread while
+ * the next one is filled. Only a fixed number of batches exist, so if the
+ * disk falls behind, the producer waits for a batch to be written rather
+ * than using ever more memory.
+ *
+ * @author Jonatan Larsson
+ */
+final class BackgroundLogWriter implements Closeable {
+
+    private static final int BATCH_SIZE = 1 << 16, BATCH_COUNT = 8;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> fullBatches = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ByteBuffer> emptyBatches = new ArrayBlockingQueue<>(BATCH_COUNT);
+    private final Thread thread;
+    private ByteBuffer batch;
+    private volatile IOException failure;
+
+    BackgroundLogWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 1; i < BATCH_COUNT; i++) {
+            emptyBatches.add(ByteBuffer.allocateDirect(BATCH_SIZE));
+        }
+        batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        thread = new Thread(this::write, "Replay log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the batch to put a record of the given size into
+     */
+    ByteBuffer reserve(int size) throws IOException {
+        if (batch.remaining() < size) {
+            submit();
+            if (batch.capacity() < size) {
+                batch = ByteBuffer.allocate(size);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Hands the records gathered so far to the writing thread.
+     */
+    void submit() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        fullBatches.add(batch);
+        try {
+            batch = emptyBatches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the log to be written", e);
+        }
+    }
+
+    private void write() {
+        try {
+            for (ByteBuffer fullBatch = fullBatches.take(); fullBatch != END; fullBatch = fullBatches.take()) {
+                try {
+                    while (fullBatch.hasRemaining()) {
+                        channel.write(fullBatch);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                fullBatch.clear();
+                if (fullBatch.capacity() == BATCH_SIZE && fullBatch.isDirect()) {
+                    emptyBatches.add(fullBatch);
+                } else {
+                    emptyBatches.add(ByteBuffer.allocateDirect(BATCH_SIZE));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the remaining records and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            submit();
+        } finally {
+            fullBatches.add(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replay;
+
+import body.Body;
+import java.util.List;
+
+/**
+ * The constants of the replay log format, and the state hash checked while
+ * replaying.
+ *
+ * The log starts with the magic number, the format version and the hash
+ * interval as ints, followed by records, each starting with its tag byte.
+ * Bodies are referred to by the ids they had while recording.
+ *
+ * @author Jonatan Larsson
+ */
+final class ReplayFormat {
+
+    static final int MAGIC = 0x52504c59, VERSION = 2;
+
+    /**
+     * Followed by the recorded id, the encoded size and the body as encoded
+     * by {@link body.BodyCodec}.
+     */
+    static final byte GROW = 0;
+    static final byte DESTROY = 1;
+    static final byte APPLY_FORCE = 2;
+    static final byte SET_VELOCITY = 3;
+    static final byte UPDATE = 4;
+
+    /**
+     * Followed by the duration and the velocity iteration, position pass and
+     * substep counts of the quality the update was made with.
+     */
+    static final byte UPDATE_WITH_QUALITY = 5;
+
+    /**
+     * Followed by the number of updates made so far and the hash of the
+     * state after them.
+     */
+    static final byte HASH = 6;
+
+    private ReplayFormat() {
+    }
+
+    static long hash(List<Body> bodies) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < bodies.size(); i++) {
+            Body body = bodies.get(i);
+            hash = mix(hash, Double.doubleToLongBits(body.position.x));
+            hash = mix(hash, Double.doubleToLongBits(body.position.y));
+            hash = mix(hash, Double.doubleToLongBits(body.velocity.x));
+            hash = mix(hash, Double.doubleToLongBits(body.velocity.y));
+            hash = mix(hash, Double.doubleToLongBits(body.angle));
+            hash = mix(hash, Double.doubleToLongBits(body.angularVelocity));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+
+}
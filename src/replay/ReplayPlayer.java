@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replay;
+
+import body.Body;
+import body.BodyCodec;
+import convenience.Vector2D;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import main.Farm;
+import main.SolverQuality;
+
+/**
+ * Replays a log written by a {@link ReplayRecorder} onto a farm, checking
+ * the recorded state hashes along the way.
+ *
+ * The farm should be empty and set up the way the recorded farm was, with
+ * the same solver quality, level of detail, adaptive timestep, worker count
+ * and so on, for the replay to reproduce the recording exactly.
+ *
+ * @author Jonatan Larsson
+ */
+public final class ReplayPlayer implements Closeable {
+
+    public final Farm farm;
+    private final DataInputStream input;
+    private final int hashInterval;
+    private final HashMap<Integer, Body> bodiesByRecordedId = new HashMap<>();
+    private final Vector2D vector = new Vector2D();
+    private long updateCount, checkedHashCount;
+
+    public ReplayPlayer(Farm farm, Path file) throws IOException {
+        this.farm = farm;
+        input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (input.readInt() != ReplayFormat.MAGIC || input.readInt() != ReplayFormat.VERSION) {
+            input.close();
+            throw new IOException("Not a replay log of a known version");
+        }
+        hashInterval = input.readInt();
+    }
+
+    /**
+     * Replays the log up to and including the next update.
+     *
+     * @return false if the log has ended
+     * @throws IllegalStateException if the state of the farm differs from
+     * the recorded state
+     * @throws IOException if the log could not be read
+     */
+    public boolean step() throws IOException {
+        while (true) {
+            int tag = input.read();
+            switch (tag) {
+                case -1:
+                    return false;
+                case ReplayFormat.GROW:
+                    int recordedId = input.readInt();
+                    byte[] encodedBody = new byte[input.readInt()];
+                    input.readFully(encodedBody);
+                    bodiesByRecordedId.put(recordedId, farm.growBody(BodyCodec.read(ByteBuffer.wrap(encodedBody))));
+                    break;
+                case ReplayFormat.DESTROY:
+                    int destroyedId = input.readInt();
+                    farm.destroyBody(body(destroyedId));
+                    bodiesByRecordedId.remove(destroyedId);
+                    break;
+                case ReplayFormat.APPLY_FORCE:
+                    Body pushedBody = body(input.readInt());
+                    vector.set(input.readDouble(), input.readDouble());
+                    pushedBody.applyForce(vector);
+                    break;
+                case ReplayFormat.SET_VELOCITY:
+                    Body acceleratedBody = body(input.readInt());
+                    vector.set(input.readDouble(), input.readDouble());
+                    acceleratedBody.setVelocity(vector);
+                    break;
+                case ReplayFormat.UPDATE:
+                    farm.update(input.readDouble());
+                    updated();
+                    return true;
+                case ReplayFormat.UPDATE_WITH_QUALITY:
+                    double seconds = input.readDouble();
+                    SolverQuality farmQuality = farm.getSolverQuality();
+                    farm.setSolverQuality(new SolverQuality(input.readInt(), input.readInt(), input.readInt()));
+                    try {
+                        farm.update(seconds);
+                    } finally {
+                        farm.setSolverQuality(farmQuality);
+                    }
+                    updated();
+                    return true;
+                default:
+                    throw new IOException("Unknown record " + tag + " after update " + updateCount);
+            }
+        }
+    }
+
+    /**
+     * Replays the rest of the log.
+     *
+     * @return the number of updates replayed in total
+     */
+    public long replay() throws IOException {
+        while (step()) {
+        }
+        return updateCount;
+    }
+
+    private void updated() throws IOException {
+        if (++updateCount % hashInterval != 0) {
+            return;
+        }
+        int tag = input.read();
+        if (tag == -1) {
+            return;
+        }
+        if (tag != ReplayFormat.HASH || input.readLong() != updateCount) {
+            throw new IOException("Missing state hash after update " + updateCount);
+        }
+        long recordedHash = input.readLong();
+        if (ReplayFormat.hash(farm.getBodies()) != recordedHash) {
+            throw new IllegalStateException("The replay diverged from the recording within the "
+                    + hashInterval + " updates up to update " + updateCount);
+        }
+        checkedHashCount++;
+    }
+
+    private Body body(int recordedId) throws IOException {
+        Body body = bodiesByRecordedId.get(recordedId);
+        if (body == null) {
+            throw new IOException("Unknown body " + recordedId + " after update " + updateCount);
+        }
+        return body;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    public long getCheckedHashCount() {
+        return checkedHashCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+}
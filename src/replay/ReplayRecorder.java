@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replay;
+
+import body.Body;
+import body.BodyCodec;
+import body.BodyInternals;
+import body.BodySeed;
+import body.CircularBody;
+import body.CircularBodySeed;
+import body.PolygonBody;
+import body.PolygonBodySeed;
+import convenience.Vector2D;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import main.Farm;
+import main.SolverQuality;
+
+/**
+ * Records everything done to a farm into an append-only log, so that the
+ * farm can be reproduced exactly by a {@link ReplayPlayer}.
+ *
+ * The farm must only be changed through the recorder while recording. The
+ * bodies already in the farm are recorded first, as they are when recording
+ * starts. Their level of detail lag and any forces already applied to them
+ * would not be recorded, so recording must start between updates and while
+ * no body lags behind. The farm is marked as recorded, which makes it
+ * reject submitted changes and particle systems, since neither can be
+ * replayed. Every given number of updates, a hash of the
+ * state of the farm is recorded, against which the replay is checked. The
+ * log is written on a background thread.
+ *
+ * @author Jonatan Larsson
+ */
+public final class ReplayRecorder implements Closeable {
+
+    public final Farm farm;
+    private final int hashInterval;
+    private final BackgroundLogWriter writer;
+    private long updateCount;
+
+    /**
+     * Starts recording the given farm.
+     *
+     * @param farm the farm, set up the way the replaying farm will be
+     * @param file the log file, which is created or truncated
+     * @param hashInterval the number of updates between state hashes
+     * @throws IOException if the log could not be opened
+     * @throws IllegalStateException if a body has forces applied to it or
+     * lags behind, or if the farm cannot be recorded
+     * @see Farm#setRecorded(boolean)
+     */
+    public ReplayRecorder(Farm farm, Path file, int hashInterval) throws IOException {
+        if (hashInterval < 1) {
+            throw new IllegalArgumentException("The hash interval must be positive");
+        }
+        for (Body body : farm.getBodies()) {
+            if (body.acceleration.x != 0 || body.acceleration.y != 0 || body.angularAcceleration != 0) {
+                throw new IllegalStateException("Body " + body.id + " has forces applied to it");
+            }
+            if (BodyInternals.getLagSeconds(body) != 0) {
+                throw new IllegalStateException("Body " + body.id + " lags behind");
+            }
+        }
+        farm.setRecorded(true);
+        this.farm = farm;
+        this.hashInterval = hashInterval;
+        try {
+            writer = new BackgroundLogWriter(file);
+        } catch (IOException e) {
+            farm.setRecorded(false);
+            throw e;
+        }
+        ByteBuffer header = writer.reserve(3 * Integer.BYTES);
+        header.putInt(ReplayFormat.MAGIC).putInt(ReplayFormat.VERSION).putInt(hashInterval);
+        for (Body body : farm.getBodies()) {
+            recordGrowth(body);
+        }
+    }
+
+    public CircularBody growCircularBody(CircularBodySeed bodySeed) {
+        CircularBody body = farm.growCircularBody(bodySeed);
+        recordGrowth(body);
+        return body;
+    }
+
+    public PolygonBody growPolygonBody(PolygonBodySeed bodySeed) {
+        PolygonBody body = farm.growPolygonBody(bodySeed);
+        recordGrowth(body);
+        return body;
+    }
+
+    public Body growBody(BodySeed bodySeed) {
+        Body body = farm.growBody(bodySeed);
+        recordGrowth(body);
+        return body;
+    }
+
+    public void destroyBody(Body body) {
+        farm.destroyBody(body);
+        reserve(1 + Integer.BYTES).put(ReplayFormat.DESTROY).putInt(body.id);
+    }
+
+    public void applyForce(Body body, Vector2D force) {
+        body.applyForce(force);
+        reserve(1 + Integer.BYTES + 2 * Double.BYTES).put(ReplayFormat.APPLY_FORCE).putInt(body.id)
+                .putDouble(force.x).putDouble(force.y);
+    }
+
+    public void setVelocity(Body body, Vector2D velocity) {
+        body.setVelocity(velocity);
+        reserve(1 + Integer.BYTES + 2 * Double.BYTES).put(ReplayFormat.SET_VELOCITY).putInt(body.id)
+                .putDouble(velocity.x).putDouble(velocity.y);
+    }
+
+    public void update(double seconds) {
+        farm.update(seconds);
+        reserve(1 + Double.BYTES).put(ReplayFormat.UPDATE).putDouble(seconds);
+        updated();
+    }
+
+    /**
+     * Makes a budgeted update, recording the quality it was made with so
+     * that the replay does not depend on timing.
+     *
+     * @see Farm#update(double, long)
+     */
+    public SolverQuality update(double seconds, long budgetNanos) {
+        SolverQuality quality = farm.update(seconds, budgetNanos);
+        reserve(1 + Double.BYTES + 3 * Integer.BYTES).put(ReplayFormat.UPDATE_WITH_QUALITY).putDouble(seconds)
+                .putInt(quality.velocityIterations).putInt(quality.positionPasses).putInt(quality.substepCount);
+        updated();
+        return quality;
+    }
+
+    private void updated() {
+        if (++updateCount % hashInterval == 0) {
+            reserve(1 + 2 * Long.BYTES).put(ReplayFormat.HASH).putLong(updateCount)
+                    .putLong(ReplayFormat.hash(farm.getBodies()));
+            try {
+                writer.submit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void recordGrowth(Body body) {
+        int size = BodyCodec.encodedSize(body);
+        ByteBuffer batch = reserve(1 + 2 * Integer.BYTES + size).put(ReplayFormat.GROW).putInt(body.id).putInt(size);
+        BodyCodec.write(body, batch);
+    }
+
+    private ByteBuffer reserve(int size) {
+        try {
+            return writer.reserve(size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Stops recording and writes the rest of the log.
+     */
+    @Override
+    public void close() throws IOException {
+        farm.setRecorded(false);
+        writer.close();
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replication;
+
+import body.Body;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * The server's end of the replication to one client. It remembers the
+ * states it has recently sent so that each delta can be based on the most
+ * recent one the client has acknowledged. If no recent state has been
+ * acknowledged, the delta carries the full state of the area instead.
+ *
+ * @author Jonatan Larsson
+ */
+public final class ClientSession {
+
+    private static final Comparator<Body> ID_ORDER = Comparator.comparingInt(body -> body.id);
+
+    private final Replicator replicator;
+    private double minX, minY, maxX, maxY;
+
+    private final QuantizedState[] history = new QuantizedState[QuantizedState.HISTORY_LENGTH];
+    private long sequence, acknowledgedSequence;
+
+    private final ArrayList<Body> bodiesInArea = new ArrayList<>();
+    private final long[] quantized = new long[QuantizedState.COMPONENT_COUNT];
+    private int[] removedIds = new int[16], changedIndices = new int[16], baselineIndices = new int[16];
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    private long lastDeltaSize, totalDeltaSize;
+
+    ClientSession(Replicator replicator) {
+        this.replicator = replicator;
+        for (int i = 0; i < history.length; i++) {
+            history[i] = new QuantizedState();
+        }
+    }
+
+    public void setAreaOfInterest(double minX, double minY, double maxX, double maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Records that the client has decoded the delta with the given sequence
+     * number. Acknowledgements may arrive out of order.
+     */
+    public void acknowledge(long sequence) {
+        acknowledgedSequence = Math.max(acknowledgedSequence, sequence);
+    }
+
+    /**
+     * Captures the current state of the area of interest and writes its
+     * delta against the most recently acknowledged state.
+     *
+     * @return the delta, valid until the next call
+     */
+    public ByteBuffer writeDelta() {
+        sequence++;
+        QuantizedState state = history[(int) (sequence % history.length)];
+        state.clear(sequence);
+        bodiesInArea.clear();
+        replicator.farm.findBodiesInArea(minX, minY, maxX, maxY, bodiesInArea);
+        bodiesInArea.sort(ID_ORDER);
+        for (Body body : bodiesInArea) {
+            replicator.quantize(body, quantized);
+            state.add(body.id, quantized, 0);
+        }
+
+        QuantizedState baseline = null;
+        if (acknowledgedSequence > 0 && sequence - acknowledgedSequence < history.length) {
+            baseline = history[(int) (acknowledgedSequence % history.length)];
+        }
+        int baselineCount = (baseline == null) ? 0 : baseline.count;
+        if (removedIds.length < baselineCount) {
+            removedIds = new int[baselineCount];
+        }
+        if (changedIndices.length < state.count) {
+            changedIndices = new int[state.count];
+            baselineIndices = new int[state.count];
+        }
+
+        int removedCount = 0, changedCount = 0, b = 0;
+        for (int i = 0; i < state.count; i++) {
+            int id = state.ids[i];
+            while (b < baselineCount && baseline.ids[b] < id) {
+                removedIds[removedCount++] = baseline.ids[b++];
+            }
+            if (b < baselineCount && baseline.ids[b] == id) {
+                if (differs(state, i, baseline, b)) {
+                    changedIndices[changedCount] = i;
+                    baselineIndices[changedCount++] = b;
+                }
+                b++;
+            } else {
+                changedIndices[changedCount] = i;
+                baselineIndices[changedCount++] = -1;
+            }
+        }
+        while (b < baselineCount) {
+            removedIds[removedCount++] = baseline.ids[b++];
+        }
+
+        ensureCapacity(4 * Varints.MAX_LONG_SIZE + removedCount * 5
+                + changedCount * (6 + QuantizedState.COMPONENT_COUNT * Varints.MAX_LONG_SIZE));
+        buffer.clear();
+        Varints.putUnsigned(buffer, sequence);
+        Varints.putUnsigned(buffer, (baseline == null) ? 0 : baseline.sequence);
+        Varints.putUnsigned(buffer, removedCount);
+        int previousId = 0;
+        for (int i = 0; i < removedCount; i++) {
+            Varints.putUnsigned(buffer, removedIds[i] - previousId);
+            previousId = removedIds[i];
+        }
+        Varints.putUnsigned(buffer, changedCount);
+        previousId = 0;
+        for (int i = 0; i < changedCount; i++) {
+            int index = changedIndices[i], baselineIndex = baselineIndices[i];
+            Varints.putUnsigned(buffer, state.ids[index] - previousId);
+            previousId = state.ids[index];
+
+            int flagsPosition = buffer.position(), flags = 0;
+            buffer.put((byte) 0);
+            for (int component = 0; component < QuantizedState.COMPONENT_COUNT; component++) {
+                long difference = state.component(index, component)
+                        - (baselineIndex < 0 ? 0 : baseline.component(baselineIndex, component));
+                if (difference != 0) {
+                    flags |= 1 << component;
+                    Varints.putSigned(buffer, difference);
+                }
+            }
+            buffer.put(flagsPosition, (byte) flags);
+        }
+        buffer.flip();
+
+        lastDeltaSize = buffer.remaining();
+        totalDeltaSize += lastDeltaSize;
+        return buffer;
+    }
+
+    private static boolean differs(QuantizedState a, int aIndex, QuantizedState b, int bIndex) {
+        for (int component = 0; component < QuantizedState.COMPONENT_COUNT; component++) {
+            if (a.component(aIndex, component) != b.component(bIndex, component)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+        }
+    }
+
+    /**
+     * @return the sequence number of the most recently written delta
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+
+    public long getLastDeltaSize() {
+        return lastDeltaSize;
+    }
+
+    public double getAverageDeltaSize() {
+        return sequence == 0 ? 0 : (double) totalDeltaSize / sequence;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+}
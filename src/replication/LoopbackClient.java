@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replication;
+
+import body.Body;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A client in the same process as the server, for measuring replication.
+ * Every tick, a delta is written by its session, read by its replica and
+ * acknowledged, after which the replica is compared with the farm.
+ *
+ * @author Jonatan Larsson
+ */
+public final class LoopbackClient {
+
+    public final ClientSession session;
+    public final Replica replica;
+    private final Replicator replicator;
+
+    private final ArrayList<Body> bodiesInArea = new ArrayList<>();
+    private double maxPositionError, maxVelocityError, maxAngleError;
+
+    public LoopbackClient(Replicator replicator, double minX, double minY, double maxX, double maxY) {
+        this.replicator = replicator;
+        session = replicator.newClientSession(minX, minY, maxX, maxY);
+        replica = replicator.newReplica();
+    }
+
+    /**
+     * Replicates the current state of the farm.
+     *
+     * @throws IllegalStateException if the replica does not hold exactly the
+     * bodies within the area of interest
+     */
+    public void tick() {
+        ByteBuffer delta = session.writeDelta();
+        session.acknowledge(replica.read(delta));
+
+        bodiesInArea.clear();
+        replicator.farm.findBodiesInArea(session.getMinX(), session.getMinY(), session.getMaxX(), session.getMaxY(), bodiesInArea);
+        if (bodiesInArea.size() != replica.getBodyCount()) {
+            throw new IllegalStateException("The replica holds " + replica.getBodyCount()
+                    + " bodies instead of " + bodiesInArea.size());
+        }
+        for (Body body : bodiesInArea) {
+            int index = replica.indexOf(body.id);
+            if (index < 0) {
+                throw new IllegalStateException("Body " + body.id + " is missing from the replica");
+            }
+            maxPositionError = Math.max(maxPositionError, Math.max(
+                    Math.abs(replica.getX(index) - body.position.x), Math.abs(replica.getY(index) - body.position.y)));
+            maxVelocityError = Math.max(maxVelocityError, Math.max(
+                    Math.abs(replica.getVelocityX(index) - body.velocity.x), Math.abs(replica.getVelocityY(index) - body.velocity.y)));
+            maxAngleError = Math.max(maxAngleError,
+                    Math.abs(Replicator.normalizedAngle(replica.getAngle(index) - body.angle)));
+        }
+    }
+
+    /**
+     * @return the largest difference between a replicated and an actual
+     * coordinate seen so far
+     */
+    public double getMaxPositionError() {
+        return maxPositionError;
+    }
+
+    public double getMaxVelocityError() {
+        return maxVelocityError;
+    }
+
+    public double getMaxAngleError() {
+        return maxAngleError;
+    }
+
+    public long getLastBytesPerTick() {
+        return session.getLastDeltaSize();
+    }
+
+    public double getAverageBytesPerTick() {
+        return session.getAverageDeltaSize();
+    }
+
+}
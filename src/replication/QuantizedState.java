@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replication;
+
+import java.util.Arrays;
+
+/**
+ * The quantized state of the replicated bodies as of one sequence number,
+ * ordered by body id.
+ *
+ * @author Jonatan Larsson
+ */
+final class QuantizedState {
+
+    static final int X = 0, Y = 1, VELOCITY_X = 2, VELOCITY_Y = 3, ANGLE = 4, COMPONENT_COUNT = 5;
+
+    /**
+     * The number of most recent states kept by both ends. A delta may only
+     * be based on a state this many sequence numbers back at most.
+     */
+    static final int HISTORY_LENGTH = 32;
+
+    long sequence;
+    int count;
+    int[] ids = new int[16];
+    long[] components = new long[16 * COMPONENT_COUNT];
+
+    void clear(long sequence) {
+        this.sequence = sequence;
+        count = 0;
+    }
+
+    void add(int id, long[] source, int sourceOffset) {
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * count);
+            components = Arrays.copyOf(components, 2 * count * COMPONENT_COUNT);
+        }
+        ids[count] = id;
+        System.arraycopy(source, sourceOffset, components, count * COMPONENT_COUNT, COMPONENT_COUNT);
+        count++;
+    }
+
+    int indexOf(int id) {
+        int index = Arrays.binarySearch(ids, 0, count, id);
+        return index < 0 ? -1 : index;
+    }
+
+    long component(int index, int component) {
+        return components[index * COMPONENT_COUNT + component];
+    }
+
+}
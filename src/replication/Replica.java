@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The client's end of the replication, rebuilding the replicated state from
+ * the deltas of a {@link ClientSession}. Deltas may arrive out of order or
+ * not at all, as long as every delta that is read is acknowledged to the
+ * session.
+ *
+ * @author Jonatan Larsson
+ */
+public final class Replica {
+
+    private static final QuantizedState EMPTY = new QuantizedState();
+
+    private final double positionPrecision, velocityPrecision, anglePrecision;
+    private final QuantizedState[] history = new QuantizedState[QuantizedState.HISTORY_LENGTH];
+    private QuantizedState latest = EMPTY;
+
+    private int[] removedIds = new int[16];
+    private final long[] components = new long[QuantizedState.COMPONENT_COUNT];
+
+    /**
+     * Constructs a replica with the precisions of the replicator whose
+     * deltas it reads.
+     */
+    public Replica(double positionPrecision, double velocityPrecision, double anglePrecision) {
+        this.positionPrecision = positionPrecision;
+        this.velocityPrecision = velocityPrecision;
+        this.anglePrecision = anglePrecision;
+        for (int i = 0; i < history.length; i++) {
+            history[i] = new QuantizedState();
+        }
+    }
+
+    /**
+     * Applies a delta. Deltas that are too old to matter are ignored.
+     *
+     * @param delta the delta, which is consumed
+     * @return the sequence number to acknowledge to the session
+     */
+    public long read(ByteBuffer delta) {
+        long sequence = Varints.getUnsigned(delta);
+        long baselineSequence = Varints.getUnsigned(delta);
+        QuantizedState target = history[(int) (sequence % history.length)];
+        if (sequence <= latest.sequence - history.length || target.sequence == sequence) {
+            return sequence;
+        }
+        QuantizedState baseline = EMPTY;
+        if (baselineSequence != 0) {
+            baseline = history[(int) (baselineSequence % history.length)];
+            if (baseline.sequence != baselineSequence) {
+                throw new IllegalArgumentException("The delta is based on an unknown state " + baselineSequence);
+            }
+        }
+
+        int removedCount = (int) Varints.getUnsigned(delta);
+        if (removedIds.length < removedCount) {
+            removedIds = new int[removedCount];
+        }
+        int id = 0;
+        for (int i = 0; i < removedCount; i++) {
+            id += (int) Varints.getUnsigned(delta);
+            removedIds[i] = id;
+        }
+
+        target.clear(sequence);
+        int changedCount = (int) Varints.getUnsigned(delta);
+        int b = 0, r = 0;
+        id = 0;
+        for (int i = 0; i < changedCount; i++) {
+            id += (int) Varints.getUnsigned(delta);
+            while (b < baseline.count && baseline.ids[b] < id) {
+                r = keepUnlessRemoved(baseline, b++, removedCount, r, target);
+            }
+            boolean known = b < baseline.count && baseline.ids[b] == id;
+            int flags = delta.get();
+            for (int component = 0; component < QuantizedState.COMPONENT_COUNT; component++) {
+                components[component] = known ? baseline.component(b, component) : 0;
+                if ((flags & (1 << component)) != 0) {
+                    components[component] += Varints.getSigned(delta);
+                }
+            }
+            if (known) {
+                b++;
+            }
+            target.add(id, components, 0);
+        }
+        while (b < baseline.count) {
+            r = keepUnlessRemoved(baseline, b++, removedCount, r, target);
+        }
+
+        if (sequence > latest.sequence) {
+            latest = target;
+        }
+        return sequence;
+    }
+
+    private int keepUnlessRemoved(QuantizedState baseline, int index, int removedCount, int r, QuantizedState target) {
+        int id = baseline.ids[index];
+        while (r < removedCount && removedIds[r] < id) {
+            r++;
+        }
+        if (r == removedCount || removedIds[r] != id) {
+            target.add(id, baseline.components, index * QuantizedState.COMPONENT_COUNT);
+        }
+        return r;
+    }
+
+    /**
+     * @return the sequence number of the newest state read
+     */
+    public long getSequence() {
+        return latest.sequence;
+    }
+
+    public int getBodyCount() {
+        return latest.count;
+    }
+
+    /**
+     * @return the index of the body with the given id, or -1 if it is not
+     * replicated
+     */
+    public int indexOf(int id) {
+        return latest.indexOf(id);
+    }
+
+    public int getId(int index) {
+        return latest.ids[index];
+    }
+
+    public double getX(int index) {
+        return latest.component(index, QuantizedState.X) * positionPrecision;
+    }
+
+    public double getY(int index) {
+        return latest.component(index, QuantizedState.Y) * positionPrecision;
+    }
+
+    public double getVelocityX(int index) {
+        return latest.component(index, QuantizedState.VELOCITY_X) * velocityPrecision;
+    }
+
+    public double getVelocityY(int index) {
+        return latest.component(index, QuantizedState.VELOCITY_Y) * velocityPrecision;
+    }
+
+    /**
+     * @return the angle, in [-pi, pi)
+     */
+    public double getAngle(int index) {
+        return latest.component(index, QuantizedState.ANGLE) * anglePrecision;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 Jonatan Larsson
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package replication;
+
+import body.Body;
+import main.Farm;
+
+/**
+ * Replicates the bodies of a farm to clients as compact deltas.
+ *
+ * Each client has a {@link ClientSession} on the server and a
+ * {@link Replica} on its own end. Positions, velocities and angles are
+ * quantized to the given precisions, and every delta only carries the
+ * bodies within the client's area of interest whose quantized state differs
+ * from the last state the client acknowledged, along with the ids of the
+ * bodies that have left the area. Bodies at rest therefore cost nothing.
+ *
+ * @author Jonatan Larsson
+ */
+public final class Replicator {
+
+    public final Farm farm;
+    final double positionPrecision, velocityPrecision, anglePrecision;
+
+    /**
+     * @param farm the farm to replicate
+     * @param positionPrecision the distance between representable positions
+     * @param velocityPrecision the difference between representable
+     * velocities
+     * @param anglePrecision the angle between representable angles
+     */
+    public Replicator(Farm farm, double positionPrecision, double velocityPrecision, double anglePrecision) {
+        if (!(positionPrecision > 0 && velocityPrecision > 0 && anglePrecision > 0)) {
+            throw new IllegalArgumentException("The precisions must be positive");
+        }
+        this.farm = farm;
+        this.positionPrecision = positionPrecision;
+        this.velocityPrecision = velocityPrecision;
+        this.anglePrecision = anglePrecision;
+    }
+
+    /**
+     * Starts replicating the bodies within the given area to a new client.
+     */
+    public ClientSession newClientSession(double minX, double minY, double maxX, double maxY) {
+        ClientSession session = new ClientSession(this);
+        session.setAreaOfInterest(minX, minY, maxX, maxY);
+        return session;
+    }
+
+    /**
+     * @return a replica decoding the deltas of this replicator's sessions
+     */
+    public Replica newReplica() {
+        return new Replica(positionPrecision, velocityPrecision, anglePrecision);
+    }
+
+    void quantize(Body body, long[] target) {
+        target[QuantizedState.X] = Math.round(body.position.x / positionPrecision);
+        target[QuantizedState.Y] = Math.round(body.position.y / positionPrecision);
+        target[QuantizedState.VELOCITY_X] = Math.round(body.velocity.x / velocityPrecision);
+        target[QuantizedState.VELOCITY_Y] = Math.round(body.velocity.y / velocityPrecision);
+        target[QuantizedState.ANGLE] = Math.round(normalizedAngle(body.angle) / anglePrecision);
+    }
+
+    /**
+     * @return the given angle moved into [-pi, pi)
+     */
+    static double normalizedAngle(double angle) {
+        return angle - 2 * Math.PI * Math.floor((angle + Math.PI) / (2 * Math.PI));
+    }
+
+}